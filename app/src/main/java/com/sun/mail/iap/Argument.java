@@ -380,6 +380,7 @@ public class Argument {
 			throws IOException, ProtocolException {
 	DataOutputStream os = (DataOutputStream)protocol.getOutputStream();
 	boolean nonSync = protocol.supportsNonSyncLiterals();
+	protocol.literalSent(size);
 
 	os.write('{');
 	os.writeBytes(Integer.toString(size));
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 1997, 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.iap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring buffer with the timings of the most recent
+ * commands of a single connection. <p>
+ *
+ * Only the command name is recorded, never the arguments,
+ * so the trace is safe to keep enabled and to report.
+ */
+
+public class CommandTrace {
+    private final String host;
+    private final Entry[] entries;
+    private int next = 0;
+    private long total = 0;
+
+    /**
+     * A registry is notified of every new connection trace.
+     * Set as the &lt;prefix&gt;.commandtrace property.
+     */
+    public interface Registry {
+	void register(CommandTrace trace);
+    }
+
+    public static class Entry {
+	public final long time;		// start, epoch milliseconds
+	public final String tag;
+	public final String command;
+	public final long bytesOut;
+	public final long bytesIn;
+	public final long literalOut;
+	public final long literalIn;
+	public final long elapsed;	// milliseconds
+	public final boolean ok;
+
+	Entry(long time, String tag, String command,
+		long bytesOut, long bytesIn, long literalOut, long literalIn,
+		long elapsed, boolean ok) {
+	    this.time = time;
+	    this.tag = tag;
+	    this.command = command;
+	    this.bytesOut = bytesOut;
+	    this.bytesIn = bytesIn;
+	    this.literalOut = literalOut;
+	    this.literalIn = literalIn;
+	    this.elapsed = elapsed;
+	    this.ok = ok;
+	}
+
+	@Override
+	public String toString() {
+	    return tag + " " + command +
+		    " " + elapsed + " ms" +
+		    " out=" + bytesOut + "/" + literalOut +
+		    " in=" + bytesIn + "/" + literalIn +
+		    (ok ? "" : " failed");
+	}
+    }
+
+    CommandTrace(String host, int size) {
+	this.host = host;
+	this.entries = new Entry[size];
+    }
+
+    /**
+     * Get the host this connection is connected to.
+     *
+     * @return	the host
+     */
+    public String getHost() {
+	return host;
+    }
+
+    /**
+     * Get the number of commands traced since the connection was made,
+     * including the ones no longer in the ring buffer.
+     *
+     * @return	the number of commands
+     */
+    public synchronized long getTotal() {
+	return total;
+    }
+
+    /**
+     * Get the traced commands, oldest first.
+     *
+     * @return	the entries
+     */
+    public synchronized List<Entry> getEntries() {
+	List<Entry> result = new ArrayList<>(entries.length);
+	for (int i = 0; i < entries.length; i++) {
+	    Entry entry = entries[(next + i) % entries.length];
+	    if (entry != null)
+		result.add(entry);
+	}
+	return result;
+    }
+
+    synchronized void add(Entry entry) {
+	entries[next] = entry;
+	next = (next + 1) % entries.length;
+	total++;
+    }
+
+    /**
+     * Get the command name without arguments,
+     * for example "UID FETCH" for "UID FETCH 1:* (FLAGS)".
+     */
+    static String getName(String command) {
+	if (command == null)
+	    return null;
+	int sp = command.indexOf(' ');
+	if (sp > 0 && command.startsWith("UID "))
+	    sp = command.indexOf(' ', sp + 1);
+	return (sp < 0 ? command : command.substring(0, sp));
+    }
+}
@@ -75,6 +75,9 @@ public class Protocol {
 
     private volatile long timestamp;
 
+    private CommandTrace trace;
+    private long literalOut = 0;
+
     // package private, to allow testing
     static final AtomicInteger tagNum = new AtomicInteger();
 
@@ -113,10 +116,22 @@ public class Protocol {
 
 	    initStreams();
 
+	    // optional per command timings
+	    Object registry = props.get(prefix + ".commandtrace");
+	    if (registry instanceof CommandTrace.Registry) {
+		int size = PropUtil.getIntProperty(props,
+					prefix + ".commandtrace.size", 100);
+		if (size > 0)
+		    trace = new CommandTrace(host, size);
+	    }
+
 	    // Read server greeting
 	    processGreeting(readResponse());
 
 	    timestamp = System.currentTimeMillis();
+
+	    if (trace != null)
+		((CommandTrace.Registry)registry).register(trace);
  
 	    connected = true;	// must be last statement in constructor
 	} finally {
@@ -210,6 +225,15 @@ public class Protocol {
         return timestamp;
     }
  
+    /**
+     * Returns the command trace of this connection.
+     *
+     * @return	the command trace, or null if tracing is disabled
+     */
+    public CommandTrace getCommandTrace() {
+	return trace;
+    }
+ 
     /**
      * Adds a response handler.
      *
@@ -272,6 +296,15 @@ public class Protocol {
 	return output;
     }
 
+    /**
+     * Account for a literal sent to the server, for command tracing.
+     *
+     * @param	size	size of the literal
+     */
+    void literalSent(int size) {
+	literalOut += size;
+    }
+
     /**
      * Returns whether this Protocol supports non-synchronizing literals
      * Default is false. Subclasses should override this if required
@@ -357,6 +390,17 @@ public class Protocol {
 		}
 
 	commandStart(command);
+
+	// snapshot the counters, cheap enough to do for every command
+	long tstart = 0, tout = 0, tin = 0, tlitin = 0, tlitout = 0;
+	if (trace != null) {
+	    tstart = System.nanoTime();
+	    tout = output.size();
+	    tin = input.getByteCount();
+	    tlitin = input.getLiteralCount();
+	    tlitout = literalOut;
+	}
+
 	List<Response> v = new ArrayList<>();
 	boolean done = false;
 	String tag = null;
@@ -405,6 +449,19 @@ public class Protocol {
 	Response[] responses = new Response[v.size()];
 	v.toArray(responses);
         timestamp = System.currentTimeMillis();
+	if (trace != null) {
+	    long elapsed = (System.nanoTime() - tstart) / 1000000L;
+	    trace.add(new CommandTrace.Entry(
+		timestamp - elapsed,
+		tag,
+		CommandTrace.getName(command),
+		output.size() - tout,
+		input.getByteCount() - tin,
+		literalOut - tlitout,
+		input.getLiteralCount() - tlitin,
+		elapsed,
+		responses.length > 0 && responses[responses.length - 1].isOK()));
+	}
 	commandEnd();
 	return responses;
     }
@@ -37,6 +37,10 @@ public class ResponseInputStream {
     // where we read from
     private BufferedInputStream bin;
 
+    // for command tracing
+    private long byteCount = 0;
+    private long literalCount = 0;
+
     /**
      * Constructor.
      *
@@ -116,6 +120,8 @@ public class ResponseInputStream {
 		break;
 	    }
 
+	    literalCount += count;
+
 	    // Now read 'count' bytes. (Note: count could be 0)
 	    if (count > 0) {
 		int avail = buffer.length - idx; // available space in buffer
@@ -142,9 +148,28 @@ public class ResponseInputStream {
 	    // back to top of loop to read until CRLF
 	}
 	ba.setCount(idx);
+	byteCount += idx;
 	return ba;
     }
 
+    /**
+     * Number of response bytes read, including literals.
+     *
+     * @return	number of bytes
+     */
+    public long getByteCount() {
+	return byteCount;
+    }
+
+    /**
+     * Number of literal bytes read.
+     *
+     * @return	number of bytes
+     */
+    public long getLiteralCount() {
+	return literalCount;
+    }
+
     /**
      * How much buffered data do we have?
      *
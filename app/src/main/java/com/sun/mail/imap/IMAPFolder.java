@@ -1967,6 +1967,51 @@ public class IMAPFolder extends Folder implements UIDFolder, ResponseHandler {
 	return uids;
     }
 
+    /**
+     * Append the given messages into this folder using a single
+     * MULTIAPPEND command (RFC 3502) and return the UIDs assigned
+     * to the messages, if the server supports UIDPLUS.
+     * Either all messages are appended or none.
+     *
+     * @param	msgs	the messages to be appended
+     * @return		array of AppendUID objects
+     * @exception	MessagingException for failures
+     */
+    public synchronized AppendUID[] multiAppendUIDMessages(Message[] msgs)
+				throws MessagingException {
+	checkExists(); // verify that self exists
+
+	int maxsize = ((IMAPStore)store).getAppendBufferSize();
+
+	final Flags[] f = new Flags[msgs.length];
+	final Date[] d = new Date[msgs.length];
+	final Literal[] mos = new Literal[msgs.length];
+	for (int i = 0; i < msgs.length; i++) {
+	    Message m = msgs[i];
+	    try {
+		// if we know the message is too big, don't buffer any of it
+		mos[i] = new MessageLiteral(m,
+				m.getSize() > maxsize ? 0 : maxsize);
+	    } catch (IOException ex) {
+		throw new MessagingException(
+				"IOException while appending messages", ex);
+	    }
+
+	    d[i] = m.getReceivedDate(); // retain dates
+	    if (d[i] == null)
+		d[i] = m.getSentDate();
+	    f[i] = m.getFlags();
+	}
+
+	return (AppendUID[])doCommand(new ProtocolCommand() {
+	    @Override
+	    public Object doCommand(IMAPProtocol p)
+		    throws ProtocolException {
+		return p.multiappenduid(fullName, f, d, mos);
+	    }
+	});
+    }
+
     /**
      * Append the given messages into this folder.
      * Return array of Message objects representing
@@ -1681,6 +1681,78 @@ public class IMAPProtocol extends Protocol {
 	    return null;
     }
 
+    /**
+     * MULTIAPPEND Command, append several messages in one command
+     * and return the uids from the APPENDUID response code.
+     * The array has a null entry for each message if the server
+     * doesn't return APPENDUID data.
+     *
+     * @param	mbox	the mailbox
+     * @param	f	the message Flags
+     * @param	d	the message dates
+     * @param	data	the message data
+     * @return		APPENDUID data
+     * @exception	ProtocolException	for protocol failures
+     * @see "RFC3502"
+     */
+    public AppendUID[] multiappenduid(String mbox, Flags[] f, Date[] d,
+			Literal[] data) throws ProtocolException {
+	if (!hasCapability("MULTIAPPEND"))
+	    throw new BadCommandException("MULTIAPPEND not supported");
+
+	Argument args = new Argument();	
+	writeMailboxName(args, mbox);
+
+	for (int i = 0; i < data.length; i++) {
+	    Flags flags = f[i];
+	    if (flags != null) {
+		// can't set the \Recent flag in APPEND
+		if (flags.contains(Flags.Flag.RECENT)) {
+		    flags = new Flags(flags);
+		    flags.remove(Flags.Flag.RECENT);
+		}
+		args.writeAtom(createFlagList(flags));
+	    }
+	    if (d[i] != null)
+		args.writeString(INTERNALDATE.format(d[i]));
+
+	    args.writeBytes(data[i]);
+	}
+
+	Response[] r = command("APPEND", args);
+
+	// dispatch untagged responses
+	notifyResponseHandlers(r);
+
+	// Handle result of this command
+	handleResult(r[r.length-1]);
+
+	AppendUID[] uids = new AppendUID[data.length];
+	Response response = r[r.length-1];
+	if (!response.isOK())
+	    return uids;
+	byte b;
+	while ((b = response.readByte()) > 0 && b != (byte)'[')
+	    ;
+	if (b == 0)
+	    return uids;
+	String s = response.readAtom();
+	if (!"APPENDUID".equalsIgnoreCase(s))
+	    return uids;
+
+	// [APPENDUID uidvalidity uid-set], in the order of the messages
+	long uidvalidity = response.readLong();
+	String set = response.readString(']');
+	if (set == null)
+	    return uids;
+	long[] luids = UIDSet.toArray(UIDSet.parseUIDSets(set));
+	if (luids == null || luids.length != data.length)
+	    return uids;
+	for (int i = 0; i < data.length; i++)
+	    uids[i] = new AppendUID(uidvalidity, luids[i]);
+	return uids;
+    }
+
     /**
      * If the response contains an APPENDUID response code, extract
      * it and return an AppendUID object with the information.
@@ -3350,4 +3422,48 @@ public class IMAPProtocol extends Protocol {
 	handleResult(response);
 	return id == null ? null : id.getServerParams();
     }
+
+    /**
+     * GENURLAUTH Command.
+     *
+     * @param	url	the URL with an access identifier
+     * @param	mechanism	the authorization mechanism, like INTERNAL
+     * @return			the authorized URL
+     * @exception	ProtocolException	for protocol failures
+     * @see "RFC 4467"
+     */
+    public String genurlauth(String url, String mechanism)
+				throws ProtocolException {
+	if (!hasCapability("URLAUTH"))
+	    throw new BadCommandException("URLAUTH not supported");
+
+	Argument args = new Argument();
+	args.writeString(url);
+	args.writeAtom(mechanism);
+
+	Response[] r = command("GENURLAUTH", args);
+
+	String authurl = null;
+	Response response = r[r.length-1];
+
+	// Grab GENURLAUTH response
+	if (response.isOK()) {
+	    for (int i = 0, len = r.length; i < len; i++) {
+		if (!(r[i] instanceof IMAPResponse))
+		    continue;
+
+		IMAPResponse ir = (IMAPResponse)r[i];
+		if (ir.keyEquals("GENURLAUTH")) {
+		    if (authurl == null)
+			authurl = ir.readAtomString();
+		    r[i] = null;
+		}
+	    }
+	}
+
+	// dispatch remaining untagged responses
+	notifyResponseHandlers(r);
+	handleResult(response);
+	return authurl;
+    }
 }
@@ -50,11 +50,14 @@ public class POP3Folder extends Folder {
     private volatile boolean opened = false;
     private POP3Message[] message_cache;
     private boolean doneUidl = false;
+    private int[] sizes = null;		// from LIST, for header prefetch
     private volatile TempFile fileCache = null;
     private boolean forceClose;
 
     MailLogger logger;	// package private, for POP3Message
 
+    private static final int PREFETCH_BATCH_SIZE = 100; // TOP commands
+
     protected POP3Folder(POP3Store store, String name) {
 	super(store);
 	this.name = name;
@@ -223,6 +226,7 @@ public class POP3Folder extends Folder {
 	// Create the message cache array of appropriate size
 	message_cache = new POP3Message[total];
 	doneUidl = false;
+	sizes = null;
 
 	notifyConnectionListeners(ConnectionEvent.OPENED);
     }
@@ -428,6 +432,8 @@ public class POP3Folder extends Folder {
 	    doneUidl = true;	// only do this once
 	}
 	if (fp.contains(FetchProfile.Item.ENVELOPE)) {
+	    if (port.supportsPipelining() && !store.disableTop)
+		prefetchHeaders(msgs);
 	    for (int i = 0; i < msgs.length; i++) {
 		try {
 		    POP3Message msg = (POP3Message)msgs[i];
@@ -442,6 +448,52 @@ public class POP3Folder extends Folder {
 	}
     }
 
+    /**
+     * Fetch the headers of the messages with pipelined TOP commands,
+     * in batches to limit the number of outstanding responses.
+     * The sizes of all messages are fetched once with a single LIST command.
+     */
+    private void prefetchHeaders(Message[] msgs) throws MessagingException {
+	List<POP3Message> pending = new ArrayList<>();
+	for (Message msg : msgs)
+	    if (!((POP3Message)msg).hasHeaders())
+		pending.add((POP3Message)msg);
+	if (pending.isEmpty())
+	    return;
+
+	if (sizes == null)
+	    sizes = getSizes();
+
+	try {
+	    for (int from = 0; from < pending.size(); from += PREFETCH_BATCH_SIZE) {
+		int count = Math.min(PREFETCH_BATCH_SIZE, pending.size() - from);
+		int[] msgnums = new int[count];
+		for (int i = 0; i < count; i++)
+		    msgnums[i] = pending.get(from + i).getMessageNumber();
+
+		InputStream[] hdrs;
+		try {
+		    hdrs = port.top(msgnums, 0);
+		} catch (IOException ex) {
+		    // the connection was closed, see Protocol.top
+		    close(false);
+		    throw new FolderClosedException(this, ex.toString());
+		}
+		for (int i = 0; i < count; i++)
+		    if (hdrs[i] != null) {
+			int msgnum = msgnums[i];
+			pending.get(from + i).setHeaders(hdrs[i],
+			    msgnum <= sizes.length ? sizes[msgnum - 1] : 0);
+		    }
+	    }
+	} catch (EOFException eex) {
+	    close(false);
+	    throw new FolderClosedException(this, eex.toString());
+	} catch (IOException ex) {
+	    throw new MessagingException("error getting headers", ex);
+	}
+    }
+
     /**
      * Return the unique ID string for this message, or null if
      * not available.  Uses the POP3 UIDL command.
@@ -308,6 +308,34 @@ public class POP3Message extends MimeMessage implements ReadableMime {
 	}
     }
 
+    /**
+     * Are the headers of this message loaded?
+     */
+    synchronized boolean hasHeaders() {
+	return (headers != null);
+    }
+
+    /**
+     * Set the headers of this message from the result of a TOP command,
+     * for example as a result of a pipelined prefetch.
+     *
+     * @param	hdrs	the result of the TOP command
+     * @param	size	the total size of the message, or zero if not known
+     */
+    synchronized void setHeaders(InputStream hdrs, int size)
+				throws MessagingException, IOException {
+	try {
+	    if (headers != null)
+		return;
+	    hdrSize = hdrs.available();
+	    headers = new InternetHeaders(hdrs);
+	    if (size > 0 && msgSize < 0)
+		msgSize = size - hdrSize;
+	} finally {
+	    hdrs.close();
+	}
+    }
+
     /**
      * Fetch the header of the message and the first <code>n</code> lines
      * of the raw content of the message.  The headers and data are
@@ -997,6 +997,54 @@ class Protocol {
 	return r.bytes;
     }
 
+    /**
+     * Return the message headers and the first n lines of the messages.
+     * If the server supports pipelining, all TOP commands are sent at once
+     * and the responses are read in order.  An entry of the result is null
+     * if the TOP command for that message failed.
+     */
+    synchronized InputStream[] top(int[] msgs, int n) throws IOException {
+	InputStream[] result = new InputStream[msgs.length];
+	if (!pipelining) {
+	    for (int i = 0; i < msgs.length; i++)
+		result[i] = top(msgs[i], n);
+	    return result;
+	}
+
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < msgs.length; i++) {
+	    if (i > 0)
+		sb.append(CRLF);
+	    sb.append("TOP ").append(msgs[i]).append(' ').append(n);
+	}
+	String cmd = sb.toString();
+	batchCommandStart(cmd);
+	issueCommand(cmd);	// do it in one write
+	try {
+	    for (int i = 0; i < msgs.length; i++) {
+		Response r = readResponse();
+		if (r.ok)
+		    result[i] = readMultilineResponse(0);
+	    }
+	} catch (IOException ex) {
+	    /*
+	     * The responses to the remaining commands are still
+	     * pending, so the connection can't be used anymore.
+	     */
+	    close();
+	    throw ex;
+	}
+	batchCommandEnd();
+	return result;
+    }
+
+    /**
+     * Does the server support pipelining?
+     */
+    boolean supportsPipelining() {
+	return pipelining;
+    }
+
     /**
      * Delete (permanently) the specified message.
      */
@@ -129,6 +129,7 @@ public class SMTPTransport extends Transport {
     private boolean debugpassword;	// include password in debug output?
     private boolean allowutf8;		// allow UTF-8 usernames and passwords?
     private int chunkSize;		// chunk size if CHUNKING supported
+    private String burlUrl;		// URL of message if submitted by BURL
 
     /** Headers that should not be included when sending */
     private static final String[] ignoreList = { "Bcc", "Content-Length" };
@@ -1269,7 +1270,7 @@ public class SMTPTransport extends Transport {
 				"mail." + name + ".allow8bitmime", false);
 	if (logger.isLoggable(Level.FINE))
 	    logger.fine("use8bit " + use8bit);
-	if (use8bit && supportsExtension("8BITMIME")) {
+	if (use8bit && burlUrl == null && supportsExtension("8BITMIME")) {
 	    if (convertTo8Bit(this.message)) {
 		// in case we made any changes, save those changes
 		// XXX - this will change the Message-ID
@@ -1284,7 +1285,9 @@ public class SMTPTransport extends Transport {
 	try {
 	    mailFrom();
 	    rcptTo();
-	    if (chunkSize > 0 && supportsExtension("CHUNKING")) {
+	    if (burlUrl != null) {
+		burl(burlUrl);
+	    } else if (chunkSize > 0 && supportsExtension("CHUNKING")) {
 		/*
 		 * Use BDAT to send the data in chunks.
 		 * Note that even though the BDAT command is able to send
@@ -1361,6 +1364,30 @@ public class SMTPTransport extends Transport {
 	sendMessageEnd();
     }
 
+    /**
+     * Submit a message by reference using the SMTP BURL command.
+     * The message should be available to the server at the
+     * (URLAUTH authorized) URL, typically in a sent folder.
+     * The message is used for the envelope only.
+     *
+     * @param	message	the message
+     * @param	addresses	the recipients
+     * @param	url	the URL of the message
+     * @exception	MessagingException for failures
+     * @see "RFC4468"
+     */
+    public synchronized void burlMessage(Message message, Address[] addresses,
+				String url) throws MessagingException {
+	if (!supportsExtension("BURL"))
+	    throw new MessagingException("BURL not supported");
+	burlUrl = url;
+	try {
+	    sendMessage(message, addresses);
+	} finally {
+	    burlUrl = null;
+	}
+    }
+
     /**
      * The send failed, fix the address arrays to report the failure correctly.
      */
@@ -2095,6 +2122,18 @@ public class SMTPTransport extends Transport {
 	issueSendCommand(".", 250);
     }
 
+    /**
+     * Send the <code>BURL</code> command to the SMTP host,
+     * referencing the complete message.
+     *
+     * @param	url	the URL of the message
+     * @exception	MessagingException for failures
+     */
+    protected void burl(String url) throws MessagingException {
+	assert Thread.holdsLock(this);
+	issueSendCommand("BURL " + url + " LAST", 250);
+    }
+
     /**
      * Return a stream that will use the SMTP BDAT command to send data.
      *
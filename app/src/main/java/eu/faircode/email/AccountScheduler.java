@@ -0,0 +1,206 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+// Runs operation partitions of different folders in parallel, operations of the same folder in order
+// Partitions opening a folder connection of their own need a connection of the budget of the account,
+// which is lowered when the server complains about too many connections and slowly raised again
+// Free connections go to the waiting partition with the highest priority
+
+public class AccountScheduler {
+    private Context context;
+    private long account;
+    private String name;
+    private boolean stopped = false;
+    private int active = 0; // connections
+    private final PriorityQueue<Helper.PriorityRunnable> waiting = new PriorityQueue<>(11, WAITING);
+    private final Map<Long, ExecutorService> executors = new HashMap<>();
+    private final ExecutorService executor; // store wide tasks
+
+    static final int DEFAULT_CONNECTIONS = 2;
+    private static final int MAX_CONNECTIONS = 5;
+    private static final int GROW_AFTER = 25; // successful partitions
+    private static final long BACKOFF_START = 2 * 1000L; // milliseconds
+    private static final long BACKOFF_MAX = 60 * 1000L; // milliseconds
+
+    // Learned limits survive reconnects
+    private static final Map<Long, Budget> budgets = new HashMap<>();
+
+    // Same order as the operation queues: lowest priority value first, then lowest order
+    private static final Comparator<Helper.PriorityRunnable> WAITING = new Comparator<Helper.PriorityRunnable>() {
+        @Override
+        public int compare(Helper.PriorityRunnable r1, Helper.PriorityRunnable r2) {
+            int p = Integer.compare(r1.getPriority(), r2.getPriority());
+            if (p != 0)
+                return p;
+            return Long.compare(r1.getOrder(), r2.getOrder());
+        }
+    };
+
+    AccountScheduler(Context context, long account, String name, int connections) {
+        this.context = context.getApplicationContext();
+        this.account = account;
+        this.name = name;
+        this.executor = Helper.getBackgroundExecutor(1, "account_" + account);
+
+        int max = Math.max(1, Math.min(MAX_CONNECTIONS, connections));
+        synchronized (budgets) {
+            Budget budget = budgets.get(account);
+            if (budget == null || budget.max != max) {
+                budget = new Budget(max);
+                budgets.put(account, budget);
+            }
+        }
+    }
+
+    synchronized void submit(Runnable runnable) {
+        if (stopped)
+            Log.i(name + " scheduler stopped");
+        else
+            executor.submit(runnable);
+    }
+
+    synchronized void submit(long folder, Helper.PriorityRunnable runnable) {
+        if (stopped) {
+            Log.i(name + " scheduler stopped folder=" + folder);
+            return;
+        }
+
+        ExecutorService folderExecutor = executors.get(folder);
+        if (folderExecutor == null) {
+            folderExecutor = Helper.getBackgroundExecutor(1, "account_" + account + "_" + folder);
+            executors.put(folder, folderExecutor);
+        }
+
+        folderExecutor.submit(runnable);
+    }
+
+    void succeeded() {
+        Budget budget = getBudget();
+        synchronized (budget) {
+            budget.backoff = BACKOFF_START;
+            if (budget.limit < budget.max && ++budget.succeeded >= GROW_AFTER) {
+                budget.limit++;
+                budget.succeeded = 0;
+                Log.i(name + " connection budget raised=" + budget.limit + "/" + budget.max);
+            }
+        }
+    }
+
+    void failed(Throwable ex) {
+        if (!ConnectionHelper.isMaxConnections(ex))
+            return;
+
+        Budget budget = getBudget();
+        synchronized (budget) {
+            budget.limit = Math.max(1, budget.limit - 1);
+            budget.succeeded = 0;
+            budget.after = SystemClock.elapsedRealtime() + budget.backoff;
+            EntityLog.log(context, name + " max connections" +
+                    " budget=" + budget.limit + "/" + budget.max +
+                    " backoff=" + (budget.backoff / 1000) + "s");
+            budget.backoff = Math.min(budget.backoff * 2, BACKOFF_MAX);
+        }
+    }
+
+    void stop() {
+        List<ExecutorService> all = new ArrayList<>();
+        synchronized (this) {
+            stopped = true;
+            all.add(executor);
+            all.addAll(executors.values());
+        }
+
+        for (ExecutorService e : all) {
+            ((ThreadPoolExecutor) e).getQueue().clear();
+            e.shutdown();
+        }
+
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    synchronized boolean acquire(Helper.PriorityRunnable partition) {
+        Budget budget = getBudget();
+        waiting.add(partition);
+        try {
+            while (!stopped) {
+                long wait;
+                synchronized (budget) {
+                    long now = SystemClock.elapsedRealtime();
+                    if (waiting.peek() == partition && active < budget.limit && now >= budget.after) {
+                        active++;
+                        return true;
+                    }
+                    wait = (now < budget.after ? budget.after - now : 0);
+                }
+                if (wait > 0)
+                    wait(wait);
+                else
+                    wait();
+            }
+            return false;
+        } catch (InterruptedException ex) {
+            Log.w(ex);
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.remove(partition);
+            notifyAll();
+        }
+    }
+
+    synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    private Budget getBudget() {
+        synchronized (budgets) {
+            return budgets.get(account);
+        }
+    }
+
+    private static class Budget {
+        private int max;
+        private int limit;
+        private int succeeded = 0;
+        private long after = 0;
+        private long backoff = BACKOFF_START;
+
+        Budget(int max) {
+            this.max = max;
+            this.limit = max;
+        }
+    }
+}
@@ -20,26 +20,23 @@ package eu.faircode.email;
 */
 
 import android.app.Dialog;
-import android.app.NotificationChannel;
-import android.app.NotificationChannelGroup;
-import android.app.NotificationManager;
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -56,7 +53,6 @@ import androidx.fragment.app.FragmentTransaction;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.Observer;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import androidx.preference.PreferenceManager;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -65,12 +61,9 @@ import com.google.android.material.textfield.TextInputLayout;
 
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemReader;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -84,10 +77,7 @@ import java.security.spec.KeySpec;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -99,8 +89,6 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 
-import static eu.faircode.email.ServiceAuthenticator.AUTH_TYPE_GMAIL;
-
 public class ActivitySetup extends ActivityBase implements FragmentManager.OnBackStackChangedListener {
     private View view;
     private DrawerLayout drawerLayout;
@@ -110,6 +98,8 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
 
     private boolean hasAccount;
     private String password;
+    private boolean messages;
+    private boolean incremental;
 
     private static final int KEY_ITERATIONS = 65536;
     private static final int KEY_LENGTH = 256;
@@ -385,7 +375,7 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
             switch (requestCode) {
                 case REQUEST_EXPORT:
                     if (resultCode == RESULT_OK && data != null)
-                        handleExport(data, this.password);
+                        handleExport(data, this.password, this.messages, this.incremental);
                     break;
                 case REQUEST_IMPORT:
                     if (resultCode == RESULT_OK && data != null)
@@ -502,10 +492,12 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
         fragmentTransaction.commit();
     }
 
-    private void handleExport(Intent data, String password) {
+    private void handleExport(Intent data, String password, boolean messages, boolean incremental) {
         Bundle args = new Bundle();
         args.putParcelable("uri", data.getData());
         args.putString("password", password);
+        args.putBoolean("messages", messages);
+        args.putBoolean("incremental", incremental);
 
         new SimpleTask<Void>() {
             @Override
@@ -517,141 +509,22 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
             protected Void onExecute(Context context, Bundle args) throws Throwable {
                 Uri uri = args.getParcelable("uri");
                 String password = args.getString("password");
+                boolean messages = args.getBoolean("messages");
+                boolean incremental = args.getBoolean("incremental");
 
                 if (!"content".equals(uri.getScheme())) {
                     Log.w("Export uri=" + uri);
                     throw new IllegalArgumentException(context.getString(R.string.title_no_stream));
                 }
 
-                Log.i("Collecting data");
-                DB db = DB.getInstance(context);
-                NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-                // Accounts
-                JSONArray jaccounts = new JSONArray();
-                for (EntityAccount account : db.account().getAccounts()) {
-                    // Account
-                    JSONObject jaccount = account.toJSON();
-
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        if (account.notify) {
-                            NotificationChannel channel = nm.getNotificationChannel(
-                                    EntityAccount.getNotificationChannelId(account.id));
-                            if (channel != null && channel.getImportance() != NotificationManager.IMPORTANCE_NONE) {
-                                JSONObject jchannel = NotificationHelper.channelToJSON(channel);
-                                jaccount.put("channel", jchannel);
-                                Log.i("Exported account channel=" + jchannel);
-                            }
-                        }
-                    }
-
-                    // Identities
-                    JSONArray jidentities = new JSONArray();
-                    for (EntityIdentity identity : db.identity().getIdentities(account.id))
-                        jidentities.put(identity.toJSON());
-                    jaccount.put("identities", jidentities);
-
-                    // Folders
-                    JSONArray jfolders = new JSONArray();
-                    for (EntityFolder folder : db.folder().getFolders(account.id, false, true)) {
-                        JSONObject jfolder = folder.toJSON();
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                            NotificationChannel channel = nm.getNotificationChannel(
-                                    EntityFolder.getNotificationChannelId(folder.id));
-                            if (channel != null && channel.getImportance() != NotificationManager.IMPORTANCE_NONE) {
-                                JSONObject jchannel = NotificationHelper.channelToJSON(channel);
-                                jfolder.put("channel", jchannel);
-                                Log.i("Exported folder channel=" + jchannel);
-                            }
-                        }
-
-                        JSONArray jrules = new JSONArray();
-                        for (EntityRule rule : db.rule().getRules(folder.id))
-                            jrules.put(rule.toJSON());
-                        jfolder.put("rules", jrules);
-
-                        jfolders.put(jfolder);
-                    }
-                    jaccount.put("folders", jfolders);
-
-                    // Contacts
-                    JSONArray jcontacts = new JSONArray();
-                    for (EntityContact contact : db.contact().getContacts(account.id))
-                        jcontacts.put(contact.toJSON());
-                    jaccount.put("contacts", jcontacts);
-
-                    jaccounts.put(jaccount);
-                }
-
-                // Answers
-                JSONArray janswers = new JSONArray();
-                for (EntityAnswer answer : db.answer().getAnswers(true))
-                    janswers.put(answer.toJSON());
-
-                // Certificates
-                JSONArray jcertificates = new JSONArray();
-                for (EntityCertificate certificate : db.certificate().getCertificates())
-                    jcertificates.put(certificate.toJSON());
-
-                // Settings
-                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-                JSONArray jsettings = new JSONArray();
-                for (String key : prefs.getAll().keySet()) {
-                    JSONObject jsetting = new JSONObject();
-                    Object value = prefs.getAll().get(key);
-                    jsetting.put("key", key);
-                    jsetting.put("value", value);
-                    if (value instanceof Boolean)
-                        jsetting.put("type", "bool");
-                    else if (value instanceof Integer)
-                        jsetting.put("type", "int");
-                    else if (value instanceof Long)
-                        jsetting.put("type", "long");
-                    else if (value instanceof String)
-                        jsetting.put("type", "string");
-                    else if (value != null) {
-                        String type = value.getClass().getName();
-                        Log.w("Unknown type=" + type);
-                        jsetting.put("type", type);
-                    }
-                    jsettings.put(jsetting);
-                }
-
-                JSONObject jsearch = new JSONObject();
-                jsearch.put("key", "external_search");
-                jsearch.put("value", Helper.isComponentEnabled(context, ActivitySearch.class));
-                jsearch.put("type", "bool");
-                jsettings.put(jsearch);
-
-                JSONObject jexport = new JSONObject();
-                jexport.put("accounts", jaccounts);
-                jexport.put("answers", janswers);
-                jexport.put("certificates", jcertificates);
-                jexport.put("classifier", MessageClassifier.toJson());
-                jexport.put("settings", jsettings);
-
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    JSONArray jchannels = new JSONArray();
-                    for (NotificationChannel channel : nm.getNotificationChannels()) {
-                        String id = channel.getId();
-                        if (id.startsWith("notification.") && id.contains("@") &&
-                                channel.getImportance() != NotificationManager.IMPORTANCE_NONE) {
-                            JSONObject jchannel = NotificationHelper.channelToJSON(channel);
-                            jchannels.put(jchannel);
-                            Log.i("Exported contact channel=" + jchannel);
-                        }
-                    }
-                    jexport.put("channels", jchannels);
-                }
-
                 ContentResolver resolver = context.getContentResolver();
                 DocumentFile file = DocumentFile.fromSingleUri(context, uri);
+                Long backup;
                 try (OutputStream raw = resolver.openOutputStream(uri)) {
                     Log.i("Writing URI=" + uri + " name=" + file.getName() + " virtual=" + file.isVirtual());
 
                     if (TextUtils.isEmpty(password))
-                        raw.write(jexport.toString(2).getBytes());
+                        backup = BackupHelper.write(context, raw, messages, incremental);
                     else {
                         byte[] salt = new byte[16];
                         SecureRandom random = new SecureRandom();
@@ -668,7 +541,7 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
                         raw.write(cipher.getIV());
 
                         OutputStream cout = new CipherOutputStream(raw, cipher);
-                        cout.write(jexport.toString(2).getBytes());
+                        backup = BackupHelper.write(context, cout, messages, incremental);
                         cout.flush();
                         raw.write(cipher.doFinal());
                     }
@@ -676,6 +549,10 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
                     Log.i("Exported data");
                 }
 
+                // Next incremental backups are based on this backup
+                if (backup != null)
+                    BackupHelper.setLast(context, backup);
+
                 return null;
             }
 
@@ -716,7 +593,6 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
                     throw new IllegalArgumentException(context.getString(R.string.title_no_stream));
                 }
 
-                StringBuilder data = new StringBuilder();
                 Log.i("Reading URI=" + uri);
                 ContentResolver resolver = context.getContentResolver();
                 try (InputStream raw = new BufferedInputStream(resolver.openInputStream(uri))) {
@@ -740,320 +616,8 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
                         in = new CipherInputStream(raw, cipher);
                     }
 
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-                    String line;
-                    while ((line = reader.readLine()) != null)
-                        data.append(line);
-                }
-
-                String json = data.toString();
-                if (!json.startsWith("{") || !json.endsWith("}")) {
-                    Log.i("Invalid JSON");
-                    throw new IllegalArgumentException(context.getString(R.string.title_setup_password_invalid));
-                }
-
-                Log.i("Importing data");
-                JSONObject jimport = new JSONObject(json);
-
-                DB db = DB.getInstance(context);
-                NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-                try {
-                    db.beginTransaction();
-
-                    Map<Long, Long> xAnswer = new HashMap<>();
-                    Map<Long, Long> xIdentity = new HashMap<>();
-                    Map<Long, Long> xFolder = new HashMap<>();
-                    List<EntityRule> rules = new ArrayList<>();
-
-                    // Answers
-                    JSONArray janswers = jimport.getJSONArray("answers");
-                    for (int a = 0; a < janswers.length(); a++) {
-                        JSONObject janswer = (JSONObject) janswers.get(a);
-                        EntityAnswer answer = EntityAnswer.fromJSON(janswer);
-                        long id = answer.id;
-                        answer.id = null;
-
-                        answer.id = db.answer().insertAnswer(answer);
-                        xAnswer.put(id, answer.id);
-
-                        Log.i("Imported answer=" + answer.name + " id=" + answer.id + " (" + id + ")");
-                    }
-
-                    EntityAccount primary = db.account().getPrimaryAccount();
-
-                    // Accounts
-                    JSONArray jaccounts = jimport.getJSONArray("accounts");
-                    for (int a = 0; a < jaccounts.length(); a++) {
-                        JSONObject jaccount = (JSONObject) jaccounts.get(a);
-                        EntityAccount account = EntityAccount.fromJSON(jaccount);
-
-                        if (account.auth_type == AUTH_TYPE_GMAIL) {
-                            if (GmailState.getAccount(context, account.user) == null) {
-                                Log.i("Google account not found user=" + account.user);
-                                continue;
-                            }
-                        }
-
-                        Long aid = account.id;
-                        account.id = null;
-
-                        if (primary != null)
-                            account.primary = false;
-
-                        // Forward referenced
-                        Long swipe_left = account.swipe_left;
-                        Long swipe_right = account.swipe_right;
-                        Long move_to = account.move_to;
-                        if (account.swipe_left != null && account.swipe_left > 0)
-                            account.swipe_left = null;
-                        if (account.swipe_right != null && account.swipe_right > 0)
-                            account.swipe_right = null;
-                        account.move_to = null;
-
-                        account.created = new Date().getTime();
-                        account.id = db.account().insertAccount(account);
-                        Log.i("Imported account=" + account.name + " id=" + account.id + " (" + aid + ")");
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                            account.deleteNotificationChannel(context);
-
-                            if (account.notify)
-                                if (jaccount.has("channel")) {
-                                    NotificationChannelGroup group = new NotificationChannelGroup("group." + account.id, account.name);
-                                    nm.createNotificationChannelGroup(group);
-
-                                    JSONObject jchannel = (JSONObject) jaccount.get("channel");
-                                    jchannel.put("id", EntityAccount.getNotificationChannelId(account.id));
-                                    jchannel.put("group", group.getId());
-                                    nm.createNotificationChannel(NotificationHelper.channelFromJSON(context, jchannel));
-
-                                    Log.i("Imported account channel=" + jchannel);
-                                } else
-                                    account.createNotificationChannel(context);
-                        }
-
-                        JSONArray jidentities = (JSONArray) jaccount.get("identities");
-                        for (int i = 0; i < jidentities.length(); i++) {
-                            JSONObject jidentity = (JSONObject) jidentities.get(i);
-                            EntityIdentity identity = EntityIdentity.fromJSON(jidentity);
-                            long id = identity.id;
-                            identity.id = null;
-
-                            identity.account = account.id;
-                            identity.id = db.identity().insertIdentity(identity);
-                            xIdentity.put(id, identity.id);
-
-                            Log.i("Imported identity=" + identity.email + " id=" + identity + id + " (" + id + ")");
-                        }
-
-                        JSONArray jfolders = (JSONArray) jaccount.get("folders");
-                        for (int f = 0; f < jfolders.length(); f++) {
-                            JSONObject jfolder = (JSONObject) jfolders.get(f);
-                            EntityFolder folder = EntityFolder.fromJSON(jfolder);
-                            long id = folder.id;
-                            folder.id = null;
-
-                            folder.account = account.id;
-                            folder.id = db.folder().insertFolder(folder);
-                            xFolder.put(id, folder.id);
-
-                            if (Objects.equals(swipe_left, id))
-                                account.swipe_left = folder.id;
-                            if (Objects.equals(swipe_right, id))
-                                account.swipe_right = folder.id;
-                            if (Objects.equals(move_to, id))
-                                account.move_to = folder.id;
-
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                                String channelId = EntityFolder.getNotificationChannelId(folder.id);
-                                nm.deleteNotificationChannel(channelId);
-
-                                if (jfolder.has("channel")) {
-                                    NotificationChannelGroup group = new NotificationChannelGroup("group." + account.id, account.name);
-                                    nm.createNotificationChannelGroup(group);
-
-                                    JSONObject jchannel = (JSONObject) jfolder.get("channel");
-                                    jchannel.put("id", channelId);
-                                    jchannel.put("group", group.getId());
-                                    nm.createNotificationChannel(NotificationHelper.channelFromJSON(context, jchannel));
-
-                                    Log.i("Imported folder channel=" + jchannel);
-                                }
-                            }
-
-                            if (jfolder.has("rules")) {
-                                JSONArray jrules = jfolder.getJSONArray("rules");
-                                for (int r = 0; r < jrules.length(); r++) {
-                                    JSONObject jrule = (JSONObject) jrules.get(r);
-                                    EntityRule rule = EntityRule.fromJSON(jrule);
-                                    rule.folder = folder.id;
-                                    rules.add(rule);
-                                }
-                            }
-                            Log.i("Imported folder=" + folder.name + " id=" + folder.id + " (" + id + ")");
-                        }
-
-                        // Contacts
-                        if (jaccount.has("contacts")) {
-                            JSONArray jcontacts = jaccount.getJSONArray("contacts");
-                            for (int c = 0; c < jcontacts.length(); c++) {
-                                JSONObject jcontact = (JSONObject) jcontacts.get(c);
-                                EntityContact contact = EntityContact.fromJSON(jcontact);
-                                contact.account = account.id;
-                                if (db.contact().getContact(contact.account, contact.type, contact.email) == null)
-                                    contact.id = db.contact().insertContact(contact);
-                            }
-                            Log.i("Imported contacts=" + jcontacts.length());
-                        }
-
-                        // Update swipe left/right
-                        db.account().updateAccount(account);
-                    }
-
-                    for (EntityRule rule : rules) {
-                        try {
-                            JSONObject jaction = new JSONObject(rule.action);
-
-                            int type = jaction.getInt("type");
-                            switch (type) {
-                                case EntityRule.TYPE_MOVE:
-                                case EntityRule.TYPE_COPY:
-                                    long target = jaction.getLong("target");
-                                    Log.i("XLAT target " + target + " > " + xFolder.get(target));
-                                    jaction.put("target", xFolder.get(target));
-                                    break;
-                                case EntityRule.TYPE_ANSWER:
-                                    long identity = jaction.getLong("identity");
-                                    long answer = jaction.getLong("answer");
-                                    Log.i("XLAT identity " + identity + " > " + xIdentity.get(identity));
-                                    Log.i("XLAT answer " + answer + " > " + xAnswer.get(answer));
-                                    jaction.put("identity", xIdentity.get(identity));
-                                    jaction.put("answer", xAnswer.get(answer));
-                                    break;
-                            }
-
-                            rule.action = jaction.toString();
-                        } catch (JSONException ex) {
-                            Log.e(ex);
-                        }
-
-                        db.rule().insertRule(rule);
-                    }
-
-                    if (jimport.has("certificates")) {
-                        JSONArray jcertificates = jimport.getJSONArray("certificates");
-                        for (int c = 0; c < jcertificates.length(); c++) {
-                            JSONObject jcertificate = (JSONObject) jcertificates.get(c);
-                            EntityCertificate certificate = EntityCertificate.fromJSON(jcertificate);
-                            EntityCertificate record = db.certificate().getCertificate(certificate.fingerprint, certificate.email);
-                            if (record == null) {
-                                db.certificate().insertCertificate(certificate);
-                                Log.i("Imported certificate=" + certificate.email);
-                            }
-                        }
-                    }
-
-                    if (jimport.has("classifier"))
-                        MessageClassifier.fromJson(jimport.getJSONObject("classifier"));
-
-                    // Settings
-                    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-                    SharedPreferences.Editor editor = prefs.edit();
-                    JSONArray jsettings = jimport.getJSONArray("settings");
-                    for (int s = 0; s < jsettings.length(); s++) {
-                        JSONObject jsetting = (JSONObject) jsettings.get(s);
-                        String key = jsetting.getString("key");
-
-                        if ("pro".equals(key) && !BuildConfig.DEBUG)
-                            continue;
-
-                        if ("biometrics".equals(key) || "pin".equals(key))
-                            continue;
-
-                        if ("alert_once".equals(key) && !Log.isXiaomi())
-                            continue;
-
-                        if ("background_service".equals(key) &&
-                                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
-                            continue;
-
-                        // Prevent restart
-                        if ("secure".equals(key) ||
-                                "shortcuts".equals(key) ||
-                                "language".equals(key) ||
-                                "query_threads".equals(key))
-                            continue;
-
-                        if (key != null && key.startsWith("widget."))
-                            continue;
-
-                        if ("external_search".equals(key)) {
-                            boolean external_search = jsetting.getBoolean("value");
-                            Helper.enableComponent(context, ActivitySearch.class, external_search);
-                            continue;
-                        }
-
-                        Object value = jsetting.get("value");
-                        String type = jsetting.optString("type");
-                        Log.i("Setting name=" + key + " value=" + value + " type=" + type);
-                        switch (type) {
-                            case "bool":
-                                editor.putBoolean(key, (Boolean) value);
-                                break;
-                            case "int":
-                                editor.putInt(key, (Integer) value);
-                                break;
-                            case "long":
-                                if (value instanceof Integer)
-                                    editor.putLong(key, Long.valueOf((Integer) value));
-                                else
-                                    editor.putLong(key, (Long) value);
-                                break;
-                            case "string":
-                                editor.putString(key, (String) value);
-                                break;
-                            default:
-                                Log.w("Inferring type of value=" + value);
-                                if (value instanceof Boolean)
-                                    editor.putBoolean(key, (Boolean) value);
-                                else if (value instanceof Integer) {
-                                    Integer i = (Integer) value;
-                                    if (key.endsWith(".account"))
-                                        editor.putLong(key, Long.valueOf(i));
-                                    else
-                                        editor.putInt(key, i);
-                                } else if (value instanceof Long)
-                                    editor.putLong(key, (Long) value);
-                                else if (value instanceof String)
-                                    editor.putString(key, (String) value);
-                                else
-                                    throw new IllegalArgumentException("Unknown settings type key=" + key);
-                        }
-
-                        Log.i("Imported setting=" + key);
-                    }
-                    editor.apply();
-                    ApplicationEx.upgrade(context);
-
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        if (jimport.has("channels")) {
-                            JSONArray jchannels = jimport.getJSONArray("channels");
-                            for (int i = 0; i < jchannels.length(); i++) {
-                                JSONObject jchannel = (JSONObject) jchannels.get(i);
-
-                                String channelId = jchannel.getString("id");
-                                nm.deleteNotificationChannel(channelId);
-
-                                nm.createNotificationChannel(NotificationHelper.channelFromJSON(context, jchannel));
-
-                                Log.i("Imported contact channel=" + jchannel);
-                            }
-                        }
-                    }
-
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                    Log.i("Importing data");
+                    BackupHelper.read(context, in);
                 }
 
                 Log.i("Imported data");
@@ -1291,6 +855,8 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
             View dview = LayoutInflater.from(getContext()).inflate(R.layout.dialog_password, null);
             etPassword1 = dview.findViewById(R.id.tilPassword1);
             etPassword2 = dview.findViewById(R.id.tilPassword2);
+            CheckBox cbMessages = dview.findViewById(R.id.cbMessages);
+            CheckBox cbIncremental = dview.findViewById(R.id.cbIncremental);
             TextView tvImportHint = dview.findViewById(R.id.tvImportHint);
 
             if (savedInstanceState != null) {
@@ -1298,7 +864,17 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
                 etPassword2.getEditText().setText(savedInstanceState.getString("fair:password2"));
             }
 
+            cbMessages.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    cbIncremental.setEnabled(isChecked && BackupHelper.hasPrevious(buttonView.getContext()));
+                }
+            });
+            cbIncremental.setEnabled(false);
+
             etPassword2.setVisibility(export ? View.VISIBLE : View.GONE);
+            cbMessages.setVisibility(export ? View.VISIBLE : View.GONE);
+            cbIncremental.setVisibility(export ? View.VISIBLE : View.GONE);
             tvImportHint.setVisibility(export ? View.GONE : View.VISIBLE);
 
             return new AlertDialog.Builder(getContext())
@@ -1313,7 +889,10 @@ public class ActivitySetup extends ActivityBase implements FragmentManager.OnBac
                                 ToastEx.makeText(getContext(), R.string.title_setup_password_missing, Toast.LENGTH_LONG).show();
                             else {
                                 if (!export || password1.equals(password2)) {
-                                    ((ActivitySetup) getActivity()).password = password1;
+                                    ActivitySetup activity = (ActivitySetup) getActivity();
+                                    activity.password = password1;
+                                    activity.messages = cbMessages.isChecked();
+                                    activity.incremental = (cbIncremental.isEnabled() && cbIncremental.isChecked());
                                     getActivity().startActivityForResult(
                                             Helper.getChooser(getContext(),
                                                     export ? getIntentExport() : getIntentImport()),
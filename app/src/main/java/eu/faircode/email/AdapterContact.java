@@ -187,6 +187,7 @@ public class AdapterContact extends RecyclerView.Adapter<AdapterContact.ViewHold
 
                     DB db = DB.getInstance(context);
                     db.contact().setContactState(id, state);
+                    ContactIndex.invalidate();
 
                     return null;
                 }
@@ -268,6 +269,7 @@ public class AdapterContact extends RecyclerView.Adapter<AdapterContact.ViewHold
 
                             DB db = DB.getInstance(context);
                             db.contact().setContactState(id, EntityContact.STATE_IGNORE);
+                            ContactIndex.invalidate();
 
                             return null;
                         }
@@ -319,6 +321,7 @@ public class AdapterContact extends RecyclerView.Adapter<AdapterContact.ViewHold
 
                             DB db = DB.getInstance(context);
                             db.contact().deleteContact(id);
+                            ContactIndex.invalidate();
 
                             return null;
                         }
@@ -502,6 +505,7 @@ public class AdapterContact extends RecyclerView.Adapter<AdapterContact.ViewHold
 
                                     DB db = DB.getInstance(context);
                                     db.contact().setContactName(id, name);
+                                    ContactIndex.invalidate();
 
                                     return null;
                                 }
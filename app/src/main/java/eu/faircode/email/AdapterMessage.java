@@ -148,7 +148,6 @@ import org.jsoup.nodes.Element;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -169,14 +168,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Properties;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 import javax.mail.Address;
-import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 
 import biweekly.Biweekly;
 import biweekly.ICalendar;
@@ -2077,77 +2073,36 @@ public class AdapterMessage extends RecyclerView.Adapter<AdapterMessage.ViewHold
                         signed_data = false;
                     args.putBoolean("signed_data", signed_data);
 
-                    Document document = JsoupEx.parse(file);
-
-                    // Add embedded messages
-                    for (EntityAttachment attachment : attachments)
-                        if (attachment.available && "message/rfc822".equals(attachment.getMimeType()))
-                            try (FileInputStream fis = new FileInputStream(attachment.getFile(context))) {
-                                Properties props = MessageHelper.getSessionProperties();
-                                Session isession = Session.getInstance(props, null);
-                                MimeMessage imessage = new MimeMessage(isession, fis);
-                                MessageHelper helper = new MessageHelper(imessage, context);
-                                MessageHelper.MessageParts parts = helper.getMessageParts();
-
-                                EntityMessage embedded = new EntityMessage();
-                                embedded.from = helper.getFrom();
-                                embedded.to = helper.getTo();
-                                embedded.cc = helper.getCc();
-                                embedded.received = helper.getReceivedHeader();
-                                if (embedded.received == null)
-                                    embedded.received = helper.getSent();
-                                embedded.subject = helper.getSubject();
-
-                                String html = parts.getHtml(context);
-                                Document d = (html == null ? Document.createShell("") : JsoupEx.parse(html));
-
-                                Element div = document.createElement("div");
-                                div.appendElement("hr");
-
-                                Element h = document.createElement("p");
-                                h.attr("style", "text-align: center;");
-
-                                Element em = document.createElement("em");
-                                em.text(TextUtils.isEmpty(attachment.name)
-                                        ? context.getString(R.string.title_attachment_eml) : attachment.name);
-                                h.appendChild(em);
-
-                                div.appendChild(h);
+                    // Sanitized documents are cached, the full view is rendered by the web view
+                    String key = null;
+                    RenderCache.Rendered rendered = null;
+                    if (!show_full) {
+                        key = RenderCache.getKey(context, message, attachments, show_images);
+                        rendered = RenderCache.get(context, message.id, key);
+                    }
 
-                                Element p = embedded.getReplyHeader(context, document, false, true);
-                                div.appendChild(p);
+                    boolean cached = (rendered != null);
 
-                                div.appendChild(d.body().tagName("p"));
+                    Document document;
+                    if (cached)
+                        document = rendered.document;
+                    else {
+                        document = RenderCache.load(context, file, attachments);
 
-                                document.body().appendChild(div);
-                            } catch (Throwable ex) {
-                                Log.e(ex);
-                            }
+                        rendered = new RenderCache.Rendered();
 
-                    HtmlHelper.cleanup(document);
+                        // Check for inline encryption
+                        rendered.inline_encrypted = HtmlHelper.contains(document, new String[]{
+                                Helper.PGP_BEGIN_MESSAGE,
+                                Helper.PGP_END_MESSAGE
+                        });
 
-                    // Check for inline encryption
-                    boolean iencrypted = HtmlHelper.contains(document, new String[]{
-                            Helper.PGP_BEGIN_MESSAGE,
-                            Helper.PGP_END_MESSAGE
-                    });
-                    args.putBoolean("inline_encrypted", iencrypted);
-
-                    // Check for images
-                    boolean has_images = false;
-                    for (Element img : document.select("img")) {
-                        if (inline) {
-                            String src = img.attr("src");
-                            if (!src.startsWith("cid:")) {
-                                has_images = true;
-                                break;
-                            }
-                        } else {
-                            has_images = true;
-                            break;
-                        }
+                        // Check for images
+                        rendered.has_images = RenderCache.hasImages(document, inline);
                     }
-                    args.putBoolean("has_images", has_images);
+
+                    args.putBoolean("inline_encrypted", rendered.inline_encrypted);
+                    args.putBoolean("has_images", rendered.has_images);
 
                     // Download inline images
                     if (show_images)
@@ -2196,7 +2151,11 @@ public class AdapterMessage extends RecyclerView.Adapter<AdapterMessage.ViewHold
                         return document.html();
                     } else {
                         // Cleanup message
-                        document = HtmlHelper.sanitizeView(context, document, show_images);
+                        if (!cached) {
+                            document = HtmlHelper.sanitizeView(context, document, show_images);
+                            rendered.document = document;
+                            RenderCache.put(context, message.id, key, rendered);
+                        }
 
                         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
                             args.putParcelable("actions", getConversationActions(message, document, context));
@@ -5273,6 +5232,8 @@ public class AdapterMessage extends RecyclerView.Adapter<AdapterMessage.ViewHold
 
         debug = prefs.getBoolean("debug", false);
 
+        RenderCache.setTheme(context);
+
         DiffUtil.ItemCallback<TupleMessageEx> callback = new DiffUtil.ItemCallback<TupleMessageEx>() {
             @Override
             public boolean areItemsTheSame(
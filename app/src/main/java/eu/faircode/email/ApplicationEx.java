@@ -94,6 +94,8 @@ public class ApplicationEx extends Application implements SharedPreferences.OnSh
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             @Override
             public void uncaughtException(Thread thread, Throwable ex) {
+                EntityLog.flushAndWait(ApplicationEx.this);
+
                 if (!crash_reports && Log.isOwnFault(ex)) {
                     Log.e(ex);
 
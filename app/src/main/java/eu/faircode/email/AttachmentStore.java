@@ -0,0 +1,189 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Attachment content stored once by SHA-256 hash, attachment files are hard links to the stored content
+// Files being written are never shared: new files get new names and rewritten files are replaced
+
+public class AttachmentStore {
+    static File getDir(Context context) {
+        File dir = new File(context.getFilesDir(), "blobs");
+        if (!dir.exists())
+            dir.mkdir();
+        return dir;
+    }
+
+    static String add(Context context, File file) throws IOException {
+        if (!file.exists())
+            return null;
+
+        String hash = getHash(file);
+        File blob = new File(getDir(context), hash);
+
+        // Content which can't be linked is hashed only once and stays a separate file
+        try {
+            if (blob.exists()) {
+                if (blob.length() != file.length())
+                    throw new IOException("Hash collision " + hash);
+                if (Os.stat(blob.getAbsolutePath()).st_ino == Os.stat(file.getAbsolutePath()).st_ino)
+                    return hash;
+
+                // Replace file by a link to the stored content
+                File tmp = new File(file.getParentFile(), file.getName() + ".link");
+                tmp.delete();
+                Os.link(blob.getAbsolutePath(), tmp.getAbsolutePath());
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Error replacing " + file);
+                }
+            } else
+                Os.link(file.getAbsolutePath(), blob.getAbsolutePath());
+        } catch (ErrnoException ex) {
+            Log.w(ex);
+        }
+
+        return hash;
+    }
+
+    static void store(Context context, EntityAttachment attachment) {
+        if (!attachment.available || attachment.hash != null)
+            return;
+
+        try {
+            attachment.hash = add(context, attachment.getFile(context));
+            if (attachment.hash != null) {
+                DB db = DB.getInstance(context);
+                db.attachment().setHash(attachment.id, attachment.hash);
+            }
+        } catch (IOException ex) {
+            Log.w(ex);
+        }
+    }
+
+    static boolean copy(Context context, File source, File target) throws IOException {
+        target.delete();
+        try {
+            Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+            return true;
+        } catch (ErrnoException ex) {
+            Log.w(ex);
+            Helper.copy(source, target);
+            return false;
+        }
+    }
+
+    static void detach(File file) {
+        // Writing to a shared file would change all messages referencing the content
+        if (file.exists() && !file.delete())
+            Log.w("Error deleting " + file);
+    }
+
+    static long dedupe(Context context) {
+        long start = new Date().getTime();
+        long reclaimed = 0;
+        int count = 0;
+
+        DB db = DB.getInstance(context);
+        List<Long> aids = db.attachment().getAttachmentUnhashed();
+        for (Long aid : aids)
+            try {
+                EntityAttachment attachment = db.attachment().getAttachment(aid);
+                if (attachment == null || !attachment.available)
+                    continue;
+
+                File file = attachment.getFile(context);
+                boolean linked = (file.exists() && Os.stat(file.getAbsolutePath()).st_nlink > 1);
+
+                String hash = add(context, file);
+                if (hash == null)
+                    continue;
+
+                if (!linked && Os.stat(file.getAbsolutePath()).st_nlink > 2)
+                    reclaimed += file.length();
+                db.attachment().setHash(attachment.id, hash);
+                count++;
+            } catch (Throwable ex) {
+                Log.w(ex);
+            }
+
+        if (count > 0)
+            EntityLog.log(context, "Attachments stored=" + count +
+                    " reclaimed=" + Helper.humanReadableByteCount(reclaimed) +
+                    " elapsed=" + (new Date().getTime() - start) + " ms");
+
+        return reclaimed;
+    }
+
+    static long cleanup(Context context) {
+        DB db = DB.getInstance(context);
+        Set<String> hashes = new HashSet<>(db.attachment().getAttachmentHashes());
+
+        long freed = 0;
+        File[] blobs = getDir(context).listFiles();
+        if (blobs != null)
+            for (File blob : blobs)
+                try {
+                    // Unreferenced by attachment rows or by attachment files
+                    // Content still linked by attachment files remains available
+                    long links = Os.stat(blob.getAbsolutePath()).st_nlink;
+                    if (!hashes.contains(blob.getName()) || links <= 1) {
+                        Log.i("Deleting " + blob + " links=" + links);
+                        long size = blob.length();
+                        if (blob.delete()) {
+                            if (links <= 1)
+                                freed += size;
+                        } else
+                            Log.w("Error deleting " + blob);
+                    }
+                } catch (ErrnoException ex) {
+                    Log.w(ex);
+                }
+
+        Log.i("Attachment store freed=" + Helper.humanReadableByteCount(freed));
+        return freed;
+    }
+
+    private static String getHash(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[Helper.BUFFER_SIZE];
+            for (int len = is.read(buffer); len != -1; len = is.read(buffer))
+                digest.update(buffer, 0, len);
+            return Helper.hex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -0,0 +1,892 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.app.NotificationChannel;
+import android.app.NotificationChannelGroup;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import androidx.preference.PreferenceManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static eu.faircode.email.ServiceAuthenticator.AUTH_TYPE_GMAIL;
+
+// Streaming backup: a zip archive with the settings written and read with JsonWriter/JsonReader,
+// optionally followed by the message bodies and attachments changed since the previous backup.
+// Restored bodies and attachments are staged per account and picked up when the messages are synchronized.
+// Old style backups, a single JSON object, are read with the same streaming reader.
+
+public class BackupHelper {
+    private static final int VERSION = 2;
+    private static final String ENTRY_SETTINGS = "backup.json";
+    private static final String DIR_MESSAGES = "messages/";
+    private static final String DIR_ATTACHMENTS = "attachments/";
+    private static final int MESSAGE_PAGE = 100;
+    private static final long KEEP_RESTORE_DURATION = 30 * 24 * 3600 * 1000L; // milliseconds
+
+    static boolean hasPrevious(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.contains("backup_last");
+    }
+
+    static Long write(Context context, OutputStream os, boolean messages, boolean incremental)
+            throws IOException, JSONException {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long backup = new Date().getTime();
+        Long base = (messages && incremental && prefs.contains("backup_last")
+                ? prefs.getLong("backup_last", 0) : null);
+
+        BufferedOutputStream bos = new BufferedOutputStream(os);
+        ZipOutputStream zos = new ZipOutputStream(bos);
+
+        Log.i("Writing settings backup=" + backup + " base=" + base);
+        zos.putNextEntry(new ZipEntry(ENTRY_SETTINGS));
+        // Closing the writer would close the archive
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8));
+        writeSettings(context, writer, backup, base);
+        writer.flush();
+        zos.closeEntry();
+
+        if (messages)
+            writeMessages(context, zos, base);
+
+        zos.finish();
+        bos.flush();
+
+        // The caller saves the time when the backup has been completely written
+        return (messages ? backup : null);
+    }
+
+    static void setLast(Context context, long backup) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putLong("backup_last", backup).apply();
+    }
+
+    static void read(Context context, InputStream is) throws IOException, JSONException {
+        BufferedInputStream bis = new BufferedInputStream(is);
+        bis.mark(1);
+        int first = bis.read();
+        bis.reset();
+
+        if (first == '{') {
+            Log.i("Reading settings");
+            readSettings(context, new JsonReader(new InputStreamReader(bis, StandardCharsets.UTF_8)));
+        } else if (first == 'P') {
+            Map<Long, Long> xAccount = null;
+            int staged = 0;
+            ZipInputStream zis = new ZipInputStream(bis);
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (ENTRY_SETTINGS.equals(name)) {
+                    Log.i("Reading settings");
+                    // Closing the reader would close the archive
+                    xAccount = readSettings(context,
+                            new JsonReader(new InputStreamReader(zis, StandardCharsets.UTF_8)));
+                } else if (xAccount != null &&
+                        (name.startsWith(DIR_MESSAGES) || name.startsWith(DIR_ATTACHMENTS))) {
+                    if (stage(context, xAccount, name, zis))
+                        staged++;
+                } else
+                    Log.w("Backup unexpected entry=" + name);
+                zis.closeEntry();
+            }
+            Log.i("Backup staged=" + staged);
+        } else {
+            Log.i("Invalid backup");
+            throw new IllegalArgumentException(context.getString(R.string.title_setup_password_invalid));
+        }
+    }
+
+    static boolean restore(Context context, EntityMessage message) {
+        if (message.msgid == null)
+            return false;
+
+        File dir = new File(getRestoreDir(context), Long.toString(message.account));
+        if (!dir.exists())
+            return false;
+
+        try {
+            String key = getKey(message.msgid);
+            File source = new File(dir, key);
+            if (!source.exists())
+                return false;
+
+            // Staged files are claimed once, other copies of the message will be downloaded
+            File file = message.getFile(context);
+            claim(source, file);
+
+            DB db = DB.getInstance(context);
+            for (EntityAttachment attachment : db.attachment().getAttachments(message.id)) {
+                File asource = new File(dir, getKey(key, attachment));
+                if (asource.exists()) {
+                    File target = attachment.getFile(context);
+                    claim(asource, target);
+                    db.attachment().setDownloaded(attachment.id, target.length());
+                }
+            }
+
+            MessageArtifacts artifacts = MessageArtifacts.get(message);
+            db.message().setMessageContent(message.id,
+                    true,
+                    artifacts.getLanguage(context, file),
+                    null,
+                    artifacts.getPreview(file),
+                    message.warning);
+            message.content = true;
+
+            Log.i("Restored message id=" + message.id + " size=" + file.length());
+            return true;
+        } catch (Throwable ex) {
+            Log.e(ex);
+            return false;
+        }
+    }
+
+    static void cleanup(Context context, boolean manual) {
+        File[] dirs = getRestoreDir(context).listFiles();
+        if (dirs == null)
+            return;
+
+        long now = new Date().getTime();
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File file : files)
+                    if (manual || file.lastModified() + KEEP_RESTORE_DURATION < now) {
+                        Log.i("Deleting " + file);
+                        if (!file.delete())
+                            Log.w("Error deleting " + file);
+                    }
+            dir.delete(); // when empty
+        }
+    }
+
+    private static void writeSettings(Context context, JsonWriter writer, long backup, Long base)
+            throws IOException, JSONException {
+        DB db = DB.getInstance(context);
+        NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        writer.beginObject();
+        writer.name("version").value(VERSION);
+        writer.name("backup").value(backup);
+        writer.name("base").value(base);
+
+        // Answers
+        writer.name("answers").beginArray();
+        for (EntityAnswer answer : db.answer().getAnswers(true))
+            write(writer, answer.toJSON());
+        writer.endArray();
+
+        // Accounts
+        writer.name("accounts").beginArray();
+        for (EntityAccount account : db.account().getAccounts()) {
+            // Account
+            JSONObject jaccount = account.toJSON();
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (account.notify) {
+                    NotificationChannel channel = nm.getNotificationChannel(
+                            EntityAccount.getNotificationChannelId(account.id));
+                    if (channel != null && channel.getImportance() != NotificationManager.IMPORTANCE_NONE) {
+                        JSONObject jchannel = NotificationHelper.channelToJSON(channel);
+                        jaccount.put("channel", jchannel);
+                        Log.i("Exported account channel=" + jchannel);
+                    }
+                }
+            }
+
+            // Identities
+            JSONArray jidentities = new JSONArray();
+            for (EntityIdentity identity : db.identity().getIdentities(account.id))
+                jidentities.put(identity.toJSON());
+            jaccount.put("identities", jidentities);
+
+            // Folders
+            JSONArray jfolders = new JSONArray();
+            for (EntityFolder folder : db.folder().getFolders(account.id, false, true)) {
+                JSONObject jfolder = folder.toJSON();
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    NotificationChannel channel = nm.getNotificationChannel(
+                            EntityFolder.getNotificationChannelId(folder.id));
+                    if (channel != null && channel.getImportance() != NotificationManager.IMPORTANCE_NONE) {
+                        JSONObject jchannel = NotificationHelper.channelToJSON(channel);
+                        jfolder.put("channel", jchannel);
+                        Log.i("Exported folder channel=" + jchannel);
+                    }
+                }
+
+                JSONArray jrules = new JSONArray();
+                for (EntityRule rule : db.rule().getRules(folder.id))
+                    jrules.put(rule.toJSON());
+                jfolder.put("rules", jrules);
+
+                jfolders.put(jfolder);
+            }
+            jaccount.put("folders", jfolders);
+
+            // Contacts
+            JSONArray jcontacts = new JSONArray();
+            for (EntityContact contact : db.contact().getContacts(account.id))
+                jcontacts.put(contact.toJSON());
+            jaccount.put("contacts", jcontacts);
+
+            write(writer, jaccount);
+        }
+        writer.endArray();
+
+        // Certificates
+        writer.name("certificates").beginArray();
+        for (EntityCertificate certificate : db.certificate().getCertificates())
+            write(writer, certificate.toJSON());
+        writer.endArray();
+
+        writer.name("classifier");
+        write(writer, MessageClassifier.toJson());
+
+        // Settings
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        Map<String, ?> all = prefs.getAll();
+        writer.name("settings").beginArray();
+        for (String key : all.keySet()) {
+            Object value = all.get(key);
+            writer.beginObject();
+            writer.name("key").value(key);
+            writer.name("value");
+            write(writer, value);
+            if (value instanceof Boolean)
+                writer.name("type").value("bool");
+            else if (value instanceof Integer)
+                writer.name("type").value("int");
+            else if (value instanceof Long)
+                writer.name("type").value("long");
+            else if (value instanceof String)
+                writer.name("type").value("string");
+            else if (value != null) {
+                String type = value.getClass().getName();
+                Log.w("Unknown type=" + type);
+                writer.name("type").value(type);
+            }
+            writer.endObject();
+        }
+
+        writer.beginObject();
+        writer.name("key").value("external_search");
+        writer.name("value").value(Helper.isComponentEnabled(context, ActivitySearch.class));
+        writer.name("type").value("bool");
+        writer.endObject();
+        writer.endArray();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            writer.name("channels").beginArray();
+            for (NotificationChannel channel : nm.getNotificationChannels()) {
+                String id = channel.getId();
+                if (id.startsWith("notification.") && id.contains("@") &&
+                        channel.getImportance() != NotificationManager.IMPORTANCE_NONE) {
+                    JSONObject jchannel = NotificationHelper.channelToJSON(channel);
+                    write(writer, jchannel);
+                    Log.i("Exported contact channel=" + jchannel);
+                }
+            }
+            writer.endArray();
+        }
+
+        writer.endObject();
+    }
+
+    private static void writeMessages(Context context, ZipOutputStream zos, Long base) throws IOException {
+        DB db = DB.getInstance(context);
+
+        long start = new Date().getTime();
+        int count = 0;
+        long size = 0;
+        String msgid = "";
+        long account = 0;
+        long id = 0;
+        String previous = null;
+        while (true) {
+            List<EntityMessage> messages = db.message().getBackupMessages(msgid, account, id, MESSAGE_PAGE);
+            if (messages.size() == 0)
+                break;
+
+            for (EntityMessage message : messages) {
+                msgid = message.msgid;
+                account = message.account;
+                id = message.id;
+
+                File file = message.getFile(context);
+                if (!file.exists())
+                    continue;
+
+                // The same message can be stored in multiple folders
+                String key = getKey(message.msgid);
+                String dir = message.account + "/";
+                if ((dir + key).equals(previous))
+                    continue;
+                previous = dir + key;
+
+                if (base == null || message.stored > base || file.lastModified() > base) {
+                    size += put(zos, DIR_MESSAGES + dir + key, file);
+                    count++;
+                }
+
+                for (EntityAttachment attachment : db.attachment().getAttachments(message.id))
+                    if (attachment.available) {
+                        File afile = attachment.getFile(context);
+                        if (afile.exists() && (base == null || afile.lastModified() > base))
+                            size += put(zos, DIR_ATTACHMENTS + dir + getKey(key, attachment), afile);
+                    }
+            }
+        }
+
+        Log.i("Exported messages=" + count + " size=" + size +
+                " elapsed=" + (new Date().getTime() - start) + " ms");
+    }
+
+    private static long put(ZipOutputStream zos, String name, File file) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        try (InputStream is = new FileInputStream(file)) {
+            Helper.copy(is, zos);
+        }
+        zos.closeEntry();
+        return file.length();
+    }
+
+    private static Map<Long, Long> readSettings(Context context, JsonReader reader) throws IOException, JSONException {
+        DB db = DB.getInstance(context);
+        NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+
+        Map<Long, Long> xAccount = new HashMap<>();
+        Map<Long, Long> xAnswer = new HashMap<>();
+        Map<Long, Long> xIdentity = new HashMap<>();
+        Map<Long, Long> xFolder = new HashMap<>();
+        List<EntityRule> rules = new ArrayList<>();
+        boolean incremental = false;
+
+        try {
+            db.beginTransaction();
+
+            EntityAccount primary = db.account().getPrimaryAccount();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if ("base".equals(name)) {
+                    // Only message content of existing accounts
+                    Object base = read(reader);
+                    incremental = (base instanceof Number);
+                    Log.i("Backup base=" + base);
+                } else if ("accounts".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        JSONObject jaccount = (JSONObject) read(reader);
+                        if (incremental)
+                            matchAccount(db, jaccount, xAccount);
+                        else
+                            importAccount(context, db, nm, jaccount, primary,
+                                    xAccount, xIdentity, xFolder, rules);
+                    }
+                    reader.endArray();
+                } else if (incremental)
+                    reader.skipValue();
+                else if ("answers".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        EntityAnswer answer = EntityAnswer.fromJSON((JSONObject) read(reader));
+                        long id = answer.id;
+                        answer.id = null;
+
+                        answer.id = db.answer().insertAnswer(answer);
+                        xAnswer.put(id, answer.id);
+
+                        Log.i("Imported answer=" + answer.name + " id=" + answer.id + " (" + id + ")");
+                    }
+                    reader.endArray();
+                } else if ("certificates".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        EntityCertificate certificate = EntityCertificate.fromJSON((JSONObject) read(reader));
+                        EntityCertificate record = db.certificate().getCertificate(certificate.fingerprint, certificate.email);
+                        if (record == null) {
+                            db.certificate().insertCertificate(certificate);
+                            Log.i("Imported certificate=" + certificate.email);
+                        }
+                    }
+                    reader.endArray();
+                } else if ("classifier".equals(name))
+                    MessageClassifier.fromJson((JSONObject) read(reader));
+                else if ("settings".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext())
+                        importSetting(context, editor, (JSONObject) read(reader));
+                    reader.endArray();
+                } else if ("channels".equals(name)) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            JSONObject jchannel = (JSONObject) read(reader);
+
+                            String channelId = jchannel.getString("id");
+                            nm.deleteNotificationChannel(channelId);
+
+                            nm.createNotificationChannel(NotificationHelper.channelFromJSON(context, jchannel));
+
+                            Log.i("Imported contact channel=" + jchannel);
+                        }
+                        reader.endArray();
+                    } else
+                        reader.skipValue();
+                } else
+                    reader.skipValue();
+            }
+            reader.endObject();
+
+            for (EntityRule rule : rules) {
+                try {
+                    JSONObject jaction = new JSONObject(rule.action);
+
+                    int type = jaction.getInt("type");
+                    switch (type) {
+                        case EntityRule.TYPE_MOVE:
+                        case EntityRule.TYPE_COPY:
+                            long target = jaction.getLong("target");
+                            Log.i("XLAT target " + target + " > " + xFolder.get(target));
+                            jaction.put("target", xFolder.get(target));
+                            break;
+                        case EntityRule.TYPE_ANSWER:
+                            long identity = jaction.getLong("identity");
+                            long answer = jaction.getLong("answer");
+                            Log.i("XLAT identity " + identity + " > " + xIdentity.get(identity));
+                            Log.i("XLAT answer " + answer + " > " + xAnswer.get(answer));
+                            jaction.put("identity", xIdentity.get(identity));
+                            jaction.put("answer", xAnswer.get(answer));
+                            break;
+                    }
+
+                    rule.action = jaction.toString();
+                } catch (JSONException ex) {
+                    Log.e(ex);
+                }
+
+                db.rule().insertRule(rule);
+            }
+
+            if (!incremental) {
+                editor.apply();
+                ApplicationEx.upgrade(context);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.i("Imported settings incremental=" + incremental);
+
+        return xAccount;
+    }
+
+    private static void matchAccount(DB db, JSONObject jaccount, Map<Long, Long> xAccount) throws JSONException {
+        long id = jaccount.getLong("id");
+        String host = jaccount.getString("host");
+        String user = jaccount.getString("user");
+        for (EntityAccount account : db.account().getAccounts())
+            if (Objects.equals(account.host, host) && Objects.equals(account.user, user)) {
+                xAccount.put(id, account.id);
+                Log.i("Matched account=" + account.name + " id=" + account.id + " (" + id + ")");
+                break;
+            }
+    }
+
+    private static void importAccount(
+            Context context, DB db, NotificationManager nm, JSONObject jaccount, EntityAccount primary,
+            Map<Long, Long> xAccount, Map<Long, Long> xIdentity, Map<Long, Long> xFolder,
+            List<EntityRule> rules) throws JSONException {
+        EntityAccount account = EntityAccount.fromJSON(jaccount);
+
+        if (account.auth_type == AUTH_TYPE_GMAIL) {
+            if (GmailState.getAccount(context, account.user) == null) {
+                Log.i("Google account not found user=" + account.user);
+                return;
+            }
+        }
+
+        Long aid = account.id;
+        account.id = null;
+
+        if (primary != null)
+            account.primary = false;
+
+        // Forward referenced
+        Long swipe_left = account.swipe_left;
+        Long swipe_right = account.swipe_right;
+        Long move_to = account.move_to;
+        if (account.swipe_left != null && account.swipe_left > 0)
+            account.swipe_left = null;
+        if (account.swipe_right != null && account.swipe_right > 0)
+            account.swipe_right = null;
+        account.move_to = null;
+
+        account.created = new Date().getTime();
+        account.id = db.account().insertAccount(account);
+        xAccount.put(aid, account.id);
+        Log.i("Imported account=" + account.name + " id=" + account.id + " (" + aid + ")");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            account.deleteNotificationChannel(context);
+
+            if (account.notify)
+                if (jaccount.has("channel")) {
+                    NotificationChannelGroup group = new NotificationChannelGroup("group." + account.id, account.name);
+                    nm.createNotificationChannelGroup(group);
+
+                    JSONObject jchannel = (JSONObject) jaccount.get("channel");
+                    jchannel.put("id", EntityAccount.getNotificationChannelId(account.id));
+                    jchannel.put("group", group.getId());
+                    nm.createNotificationChannel(NotificationHelper.channelFromJSON(context, jchannel));
+
+                    Log.i("Imported account channel=" + jchannel);
+                } else
+                    account.createNotificationChannel(context);
+        }
+
+        JSONArray jidentities = (JSONArray) jaccount.get("identities");
+        for (int i = 0; i < jidentities.length(); i++) {
+            JSONObject jidentity = (JSONObject) jidentities.get(i);
+            EntityIdentity identity = EntityIdentity.fromJSON(jidentity);
+            long id = identity.id;
+            identity.id = null;
+
+            identity.account = account.id;
+            identity.id = db.identity().insertIdentity(identity);
+            xIdentity.put(id, identity.id);
+
+            Log.i("Imported identity=" + identity.email + " id=" + identity + id + " (" + id + ")");
+        }
+
+        JSONArray jfolders = (JSONArray) jaccount.get("folders");
+        for (int f = 0; f < jfolders.length(); f++) {
+            JSONObject jfolder = (JSONObject) jfolders.get(f);
+            EntityFolder folder = EntityFolder.fromJSON(jfolder);
+            long id = folder.id;
+            folder.id = null;
+
+            folder.account = account.id;
+            folder.id = db.folder().insertFolder(folder);
+            xFolder.put(id, folder.id);
+
+            if (Objects.equals(swipe_left, id))
+                account.swipe_left = folder.id;
+            if (Objects.equals(swipe_right, id))
+                account.swipe_right = folder.id;
+            if (Objects.equals(move_to, id))
+                account.move_to = folder.id;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                String channelId = EntityFolder.getNotificationChannelId(folder.id);
+                nm.deleteNotificationChannel(channelId);
+
+                if (jfolder.has("channel")) {
+                    NotificationChannelGroup group = new NotificationChannelGroup("group." + account.id, account.name);
+                    nm.createNotificationChannelGroup(group);
+
+                    JSONObject jchannel = (JSONObject) jfolder.get("channel");
+                    jchannel.put("id", channelId);
+                    jchannel.put("group", group.getId());
+                    nm.createNotificationChannel(NotificationHelper.channelFromJSON(context, jchannel));
+
+                    Log.i("Imported folder channel=" + jchannel);
+                }
+            }
+
+            if (jfolder.has("rules")) {
+                JSONArray jrules = jfolder.getJSONArray("rules");
+                for (int r = 0; r < jrules.length(); r++) {
+                    JSONObject jrule = (JSONObject) jrules.get(r);
+                    EntityRule rule = EntityRule.fromJSON(jrule);
+                    rule.folder = folder.id;
+                    rules.add(rule);
+                }
+            }
+            Log.i("Imported folder=" + folder.name + " id=" + folder.id + " (" + id + ")");
+        }
+
+        // Contacts
+        if (jaccount.has("contacts")) {
+            JSONArray jcontacts = jaccount.getJSONArray("contacts");
+            for (int c = 0; c < jcontacts.length(); c++) {
+                JSONObject jcontact = (JSONObject) jcontacts.get(c);
+                EntityContact contact = EntityContact.fromJSON(jcontact);
+                contact.account = account.id;
+                if (db.contact().getContact(contact.account, contact.type, contact.email) == null)
+                    contact.id = db.contact().insertContact(contact);
+            }
+            ContactIndex.invalidate();
+            Log.i("Imported contacts=" + jcontacts.length());
+        }
+
+        // Update swipe left/right
+        db.account().updateAccount(account);
+    }
+
+    private static void importSetting(Context context, SharedPreferences.Editor editor, JSONObject jsetting)
+            throws JSONException {
+        String key = jsetting.getString("key");
+
+        if ("pro".equals(key) && !BuildConfig.DEBUG)
+            return;
+
+        if ("biometrics".equals(key) || "pin".equals(key))
+            return;
+
+        if ("alert_once".equals(key) && !Log.isXiaomi())
+            return;
+
+        if ("background_service".equals(key) &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return;
+
+        // Prevent restart
+        if ("secure".equals(key) ||
+                "shortcuts".equals(key) ||
+                "language".equals(key) ||
+                "query_threads".equals(key))
+            return;
+
+        // Device specific
+        if ("backup_last".equals(key))
+            return;
+
+        if (key != null && key.startsWith("widget."))
+            return;
+
+        // Learned per account on this device
+        if (key != null && key.startsWith("fetch."))
+            return;
+
+        if ("external_search".equals(key)) {
+            boolean external_search = jsetting.getBoolean("value");
+            Helper.enableComponent(context, ActivitySearch.class, external_search);
+            return;
+        }
+
+        Object value = jsetting.get("value");
+        String type = jsetting.optString("type");
+        Log.i("Setting name=" + key + " value=" + value + " type=" + type);
+        switch (type) {
+            case "bool":
+                editor.putBoolean(key, (Boolean) value);
+                break;
+            case "int":
+                editor.putInt(key, (Integer) value);
+                break;
+            case "long":
+                if (value instanceof Integer)
+                    editor.putLong(key, Long.valueOf((Integer) value));
+                else
+                    editor.putLong(key, (Long) value);
+                break;
+            case "string":
+                editor.putString(key, (String) value);
+                break;
+            default:
+                Log.w("Inferring type of value=" + value);
+                if (value instanceof Boolean)
+                    editor.putBoolean(key, (Boolean) value);
+                else if (value instanceof Integer) {
+                    Integer i = (Integer) value;
+                    if (key.endsWith(".account"))
+                        editor.putLong(key, Long.valueOf(i));
+                    else
+                        editor.putInt(key, i);
+                } else if (value instanceof Long)
+                    editor.putLong(key, (Long) value);
+                else if (value instanceof String)
+                    editor.putString(key, (String) value);
+                else
+                    throw new IllegalArgumentException("Unknown settings type key=" + key);
+        }
+
+        Log.i("Imported setting=" + key);
+    }
+
+    private static boolean stage(Context context, Map<Long, Long> xAccount, String name, InputStream is)
+            throws IOException {
+        // messages/<account>/<key> or attachments/<account>/<key>.<sequence>[.<subsequence>]
+        String[] parts = name.split("/");
+        if (parts.length != 3 || !parts[2].matches("[0-9a-f]+(\\.[0-9]+)*")) {
+            Log.w("Backup invalid entry=" + name);
+            return false;
+        }
+
+        Long account;
+        try {
+            account = xAccount.get(Long.parseLong(parts[1]));
+        } catch (NumberFormatException ex) {
+            Log.w(ex);
+            return false;
+        }
+        if (account == null)
+            return false;
+
+        File dir = new File(getRestoreDir(context), Long.toString(account));
+        if (!dir.exists())
+            dir.mkdirs();
+
+        try (OutputStream os = new FileOutputStream(new File(dir, parts[2]))) {
+            Helper.copy(is, os);
+        }
+
+        return true;
+    }
+
+    private static String getKey(String msgid) {
+        try {
+            return Helper.sha256(msgid);
+        } catch (Throwable ex) {
+            Log.e(ex);
+            return Integer.toHexString(msgid.hashCode());
+        }
+    }
+
+    private static String getKey(String key, EntityAttachment attachment) {
+        return key + "." + attachment.sequence +
+                (attachment.subsequence == null ? "" : "." + attachment.subsequence);
+    }
+
+    private static void claim(File source, File target) throws IOException {
+        target.delete();
+        if (!source.renameTo(target)) {
+            Helper.copy(source, target);
+            if (!source.delete())
+                Log.w("Error deleting " + source);
+        }
+    }
+
+    private static File getRestoreDir(Context context) {
+        return new File(context.getFilesDir(), "restore");
+    }
+
+    private static void write(JsonWriter writer, Object value) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL)
+            writer.nullValue();
+        else if (value instanceof JSONObject) {
+            JSONObject jobject = (JSONObject) value;
+            writer.beginObject();
+            Iterator<String> keys = jobject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writer.name(key);
+                write(writer, jobject.get(key));
+            }
+            writer.endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray jarray = (JSONArray) value;
+            writer.beginArray();
+            for (int i = 0; i < jarray.length(); i++)
+                write(writer, jarray.get(i));
+            writer.endArray();
+        } else if (value instanceof Boolean)
+            writer.value((Boolean) value);
+        else if (value instanceof Number)
+            writer.value((Number) value);
+        else
+            writer.value(value.toString());
+    }
+
+    private static Object read(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject jobject = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    jobject.put(name, read(reader));
+                }
+                reader.endObject();
+                return jobject;
+
+            case BEGIN_ARRAY:
+                JSONArray jarray = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext())
+                    jarray.put(read(reader));
+                reader.endArray();
+                return jarray;
+
+            case BOOLEAN:
+                return reader.nextBoolean();
+
+            case NUMBER:
+                // Same types as JSONObject would yield
+                String number = reader.nextString();
+                try {
+                    long l = Long.parseLong(number);
+                    if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+                        return (int) l;
+                    return l;
+                } catch (NumberFormatException ignored) {
+                    return Double.parseDouble(number);
+                }
+
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+
+            default:
+                return reader.nextString();
+        }
+    }
+}
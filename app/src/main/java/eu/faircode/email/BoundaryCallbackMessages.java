@@ -38,9 +38,11 @@ import com.sun.mail.imap.IMAPStore;
 import com.sun.mail.imap.protocol.IMAPProtocol;
 import com.sun.mail.imap.protocol.IMAPResponse;
 import com.sun.mail.imap.protocol.SearchSequence;
+import com.sun.mail.imap.protocol.UIDSet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.nio.charset.StandardCharsets;
@@ -50,7 +52,9 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.mail.FetchProfile;
 import javax.mail.Flags;
@@ -91,7 +95,10 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
 
     private static final int SEARCH_LIMIT_DEVICE = 1000;
     private static final int SEARCH_LIMIT_SERVER = 250;
+    private static final int SEARCH_BATCH_DEVICE = 100;
     private static ExecutorService executor = Helper.getBackgroundExecutor(1, "boundary");
+    private static ExecutorService executorSearch =
+            Helper.getBackgroundExecutor(Runtime.getRuntime().availableProcessors(), "search");
 
     interface IBoundaryCallbackMessages {
         void onLoading();
@@ -193,7 +200,7 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         });
     }
 
-    private int load_device(State state) {
+    private int load_device(final State state) {
         DB db = DB.getInstance(context);
 
         int found = 0;
@@ -228,80 +235,105 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
             return found;
         }
 
-        try {
-            db.beginTransaction();
-
-            while (found < pageSize && !state.destroyed) {
-                if (state.matches == null ||
-                        (state.matches.size() > 0 && state.index >= state.matches.size())) {
-                    state.matches = db.message().matchMessages(
-                            account, folder,
-                            criteria.query == null ? null : "%" + criteria.query + "%",
-                            criteria.in_senders,
-                            criteria.in_recipients,
-                            criteria.in_subject,
-                            criteria.in_keywords,
-                            criteria.in_message,
-                            criteria.with_unseen,
-                            criteria.with_flagged,
-                            criteria.with_hidden,
-                            criteria.with_encrypted,
-                            criteria.with_attachments,
-                            criteria.with_types == null ? 0 : criteria.with_types.length,
-                            criteria.with_types == null ? new String[]{} : criteria.with_types,
-                            criteria.with_size,
-                            criteria.after,
-                            criteria.before,
-                            SEARCH_LIMIT_DEVICE, state.offset);
-                    EntityLog.log(context, "Boundary device" +
-                            " account=" + account +
-                            " folder=" + folder +
-                            " criteria=" + criteria +
-                            " offset=" + state.offset +
-                            " size=" + state.matches.size());
-                    state.offset += Math.min(state.matches.size(), SEARCH_LIMIT_DEVICE);
-                    state.index = 0;
-                }
+        final TextMatcher matcher = (criteria.query != null && criteria.in_message
+                ? new TextMatcher(criteria.query) : null);
+
+        while (found < pageSize && !state.destroyed) {
+            if (state.matches == null ||
+                    (state.matches.size() > 0 && state.index >= state.matches.size())) {
+                state.matches = db.message().matchMessages(
+                        account, folder,
+                        criteria.query == null ? null : "%" + criteria.query + "%",
+                        criteria.in_senders,
+                        criteria.in_recipients,
+                        criteria.in_subject,
+                        criteria.in_keywords,
+                        criteria.in_message,
+                        criteria.with_unseen,
+                        criteria.with_flagged,
+                        criteria.with_hidden,
+                        criteria.with_encrypted,
+                        criteria.with_attachments,
+                        criteria.with_types == null ? 0 : criteria.with_types.length,
+                        criteria.with_types == null ? new String[]{} : criteria.with_types,
+                        criteria.with_size,
+                        criteria.after,
+                        criteria.before,
+                        SEARCH_LIMIT_DEVICE, state.offset);
+                EntityLog.log(context, "Boundary device" +
+                        " account=" + account +
+                        " folder=" + folder +
+                        " criteria=" + criteria +
+                        " offset=" + state.offset +
+                        " size=" + state.matches.size());
+                state.offset += Math.min(state.matches.size(), SEARCH_LIMIT_DEVICE);
+                state.index = 0;
+            }
 
-                if (state.matches.size() == 0)
-                    break;
+            if (state.matches.size() == 0)
+                break;
 
-                for (int i = state.index; i < state.matches.size() && found < pageSize && !state.destroyed; i++) {
-                    state.index = i + 1;
+            int from = state.index;
+            int to = Math.min(state.matches.size(), from + SEARCH_BATCH_DEVICE);
+            List<TupleMatch> batch = state.matches.subList(from, to);
+            state.index = to;
 
-                    TupleMatch match = state.matches.get(i);
-                    if (criteria.query != null &&
-                            criteria.in_message &&
-                            (match.matched == null || !match.matched))
-                        try {
-                            File file = EntityMessage.getFile(context, match.id);
-                            if (file.exists()) {
-                                String html = Helper.readText(file);
-                                if (html.toLowerCase().contains(criteria.query)) {
-                                    String text = HtmlHelper.getFullText(html);
-                                    if (text.toLowerCase().contains(criteria.query))
-                                        match.matched = true;
+            // Stream the message texts in parallel
+            if (matcher != null) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (final TupleMatch match : batch)
+                    if (match.matched == null || !match.matched)
+                        futures.add(executorSearch.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (state.destroyed)
+                                    return;
+                                try {
+                                    File file = EntityMessage.getFile(context, match.id);
+                                    if (file.exists())
+                                        try (Reader reader = Helper.getReader(file)) {
+                                            if (matcher.matchesHtml(reader))
+                                                match.matched = true;
+                                        }
+                                } catch (IOException ex) {
+                                    Log.e(ex);
                                 }
                             }
-                        } catch (IOException ex) {
-                            Log.e(ex);
-                        }
+                        }));
+
+                for (Future<?> future : futures)
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        Log.w(ex);
+                    } catch (InterruptedException ex) {
+                        Log.w(ex);
+                        for (Future<?> pending : futures)
+                            pending.cancel(false);
+                        Thread.currentThread().interrupt();
+                        return found;
+                    }
+            }
 
+            // Show the messages found so far
+            try {
+                db.beginTransaction();
+
+                for (TupleMatch match : batch)
                     if (match.matched != null && match.matched) {
                         found++;
                         db.message().setMessageFound(match.id);
                     }
-                }
-            }
-
-            db.setTransactionSuccessful();
 
-            if (found == pageSize)
-                return found;
-        } finally {
-            db.endTransaction();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         }
 
+        if (found >= pageSize)
+            return found;
+
         Log.i("Boundary device done");
         return found;
     }
@@ -432,11 +464,17 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
                         }
                     });
 
-                    state.imessages = (Message[]) result;
+                    if (result instanceof long[]) {
+                        state.uids = (long[]) result;
+                        state.imessages = new Message[0];
+                    } else
+                        state.imessages = (Message[]) result;
                 }
-                EntityLog.log(context, "Boundary found messages=" + state.imessages.length);
 
-                state.index = state.imessages.length - 1;
+                int matches = (state.uids == null ? state.imessages.length : state.uids.length);
+                EntityLog.log(context, "Boundary found messages=" + matches);
+
+                state.index = matches - 1;
             } catch (Throwable ex) {
                 state.error = true;
                 if (ex instanceof FolderClosedException)
@@ -452,13 +490,24 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         while (state.index >= 0 && found < pageSize && !state.destroyed) {
             Log.i("Boundary server index=" + state.index);
             int from = Math.max(0, state.index - (pageSize - found) + 1);
-            Message[] isub = Arrays.copyOfRange(state.imessages, from, state.index + 1);
+            Message[] isub;
+            if (state.uids == null) {
+                isub = Arrays.copyOfRange(state.imessages, from, state.index + 1);
+
+                FetchProfile fp0 = new FetchProfile();
+                fp0.add(UIDFolder.FetchProfileItem.UID);
+                state.ifolder.fetch(isub, fp0);
+            } else {
+                // Messages of the visible page only
+                long[] usub = Arrays.copyOfRange(state.uids, from, state.index + 1);
+                List<Message> imessages = new ArrayList<>();
+                for (Message imessage : state.ifolder.getMessagesByUID(usub))
+                    if (imessage != null) // expunged
+                        imessages.add(imessage);
+                isub = imessages.toArray(new Message[0]);
+            }
             state.index -= (pageSize - found);
 
-            FetchProfile fp0 = new FetchProfile();
-            fp0.add(UIDFolder.FetchProfileItem.UID);
-            state.ifolder.fetch(isub, fp0);
-
             List<Message> add = new ArrayList<>();
             for (Message m : isub)
                 try {
@@ -540,7 +589,7 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         return found;
     }
 
-    private Message[] search(boolean utf8, String[] keywords, IMAPProtocol protocol, State state) throws IOException, MessagingException, ProtocolException {
+    private Object search(boolean utf8, String[] keywords, IMAPProtocol protocol, State state) throws IOException, MessagingException, ProtocolException {
         EntityLog.log(context, "Search utf8=" + utf8);
 
         SearchTerm terms = criteria.getTerms(utf8, state.ifolder.getPermanentFlags(), keywords);
@@ -551,6 +600,11 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         Argument args = ss.generateSequence(terms, utf8 ? StandardCharsets.UTF_8.name() : null);
         args.writeAtom("ALL");
 
+        // Let the server return ordered UIDs, so that only visible pages need to be fetched
+        long[] uids = searchUids(utf8, args, protocol);
+        if (uids != null)
+            return uids;
+
         Response[] responses = protocol.command("SEARCH", args); // no CHARSET !
         if (responses == null || responses.length == 0)
             throw new ProtocolException("No response from server");
@@ -577,6 +631,66 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         return imessages;
     }
 
+    private long[] searchUids(boolean utf8, Argument criteria, IMAPProtocol protocol) throws ProtocolException {
+        String command;
+        Argument args = new Argument();
+        if (protocol.hasCapability("SORT")) {
+            // https://tools.ietf.org/html/rfc5256
+            command = "UID SORT";
+            args.writeArgument(new Argument().writeAtom("ARRIVAL"));
+            args.writeAtom(utf8 ? StandardCharsets.UTF_8.name() : StandardCharsets.US_ASCII.name());
+        } else if (protocol.hasCapability("ESEARCH")) {
+            // https://tools.ietf.org/html/rfc4731
+            command = "UID SEARCH";
+            args.writeAtom("RETURN");
+            args.writeArgument(new Argument().writeAtom("ALL"));
+        } else
+            return null;
+        args.append(criteria);
+
+        EntityLog.log(context, "Search command=" + command);
+        Response[] responses = protocol.command(command, args);
+        if (responses == null || responses.length == 0 ||
+                !responses[responses.length - 1].isOK()) {
+            // Fall back to a plain search
+            EntityLog.log(context, "Search " + command + " failed");
+            return null;
+        }
+
+        List<Long> uids = new ArrayList<>();
+        for (Response response : responses) {
+            if (!(response instanceof IMAPResponse))
+                continue;
+            IMAPResponse ir = (IMAPResponse) response;
+            if (ir.keyEquals("SORT")) {
+                long uid;
+                while ((uid = ir.readLong()) != -1)
+                    uids.add(uid);
+            } else if (ir.keyEquals("ESEARCH")) {
+                // * ESEARCH (TAG "A1") UID ALL 2,10:11
+                ir.skipSpaces();
+                if (ir.peekByte() == '(')
+                    while (ir.peekByte() != 0 && ir.readByte() != ')')
+                        ;
+                String name;
+                while ((name = ir.readAtom()) != null && name.length() > 0)
+                    if ("ALL".equalsIgnoreCase(name)) {
+                        long[] all = UIDSet.toArray(UIDSet.parseUIDSets(ir.readAtom()));
+                        if (all != null)
+                            for (long uid : all)
+                                uids.add(uid);
+                    } else if (!"UID".equalsIgnoreCase(name))
+                        ir.readAtom(); // value
+            }
+        }
+
+        EntityLog.log(context, "Search uids=" + uids.size());
+        long[] result = new long[uids.size()];
+        for (int i = 0; i < uids.size(); i++)
+            result[i] = uids.get(i);
+        return result;
+    }
+
     void destroy() {
         final State old = this.state;
         old.destroyed = true;
@@ -623,6 +737,7 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         EmailService iservice = null;
         IMAPFolder ifolder = null;
         Message[] imessages = null;
+        long[] uids = null; // server ordered search results
 
         void reset() {
             Log.i("Boundary reset");
@@ -635,6 +750,7 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
             iservice = null;
             ifolder = null;
             imessages = null;
+            uids = null;
         }
     }
 
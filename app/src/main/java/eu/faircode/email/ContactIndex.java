@@ -0,0 +1,259 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Prefix index for contact suggestions
+// Tokens are the email address, the words of its local part, its domain, the name and each word of the name
+// The tokens are sorted, so the tokens starting with a prefix are a range of the index
+
+public class ContactIndex {
+    private static boolean dirty = true;
+    private static final TreeMap<String, Set<EntityContact>> index = new TreeMap<>(); // by token
+    private static final Map<Long, EntityContact> contacts = new HashMap<>(); // by id
+    private static final Map<String, EntityContact> keys = new HashMap<>(); // by account, type and email
+    private static final Map<String, EntityContact> system = new HashMap<>(); // by email
+
+    static final int MAX_SUGGESTIONS = 100;
+
+    private static final Comparator<EntityContact> RANK = new Comparator<EntityContact>() {
+        @Override
+        public int compare(EntityContact c1, EntityContact c2) {
+            int f = Boolean.compare(
+                    c1.state != null && c1.state == EntityContact.STATE_FAVORITE,
+                    c2.state != null && c2.state == EntityContact.STATE_FAVORITE);
+            if (f != 0)
+                return f;
+
+            int t = Integer.compare(
+                    c1.times_contacted == null ? 0 : c1.times_contacted,
+                    c2.times_contacted == null ? 0 : c2.times_contacted);
+            if (t != 0)
+                return t;
+
+            return Long.compare(
+                    c1.last_contacted == null ? 0 : c1.last_contacted,
+                    c2.last_contacted == null ? 0 : c2.last_contacted);
+        }
+    };
+
+    static synchronized void invalidate() {
+        dirty = true;
+    }
+
+    static synchronized void update(EntityContact contact) {
+        if (dirty)
+            return;
+
+        EntityContact existing = contacts.remove(contact.id);
+        if (existing != null) {
+            keys.remove(getKey(existing));
+            remove(existing);
+        }
+
+        if (contact.state == null || contact.state != EntityContact.STATE_IGNORE) {
+            contacts.put(contact.id, contact);
+            keys.put(getKey(contact), contact);
+            add(contact);
+        }
+    }
+
+    static synchronized void updateStats(EntityContact delta) {
+        // Same changes as DaoContact.updateContactStats
+        if (dirty)
+            return;
+
+        EntityContact contact = keys.get(getKey(delta));
+        if (contact == null)
+            return;
+
+        remove(contact);
+        if (contact.name == null)
+            contact.name = delta.name;
+        contact.avatar = delta.avatar;
+        contact.times_contacted = (contact.times_contacted == null ? 0 : contact.times_contacted) +
+                delta.times_contacted;
+        contact.first_contacted = (contact.first_contacted == null ? delta.first_contacted
+                : Math.min(contact.first_contacted, delta.first_contacted));
+        contact.last_contacted = (contact.last_contacted == null ? delta.last_contacted
+                : Math.max(contact.last_contacted, delta.last_contacted));
+        add(contact);
+    }
+
+    static synchronized void setSystemContacts(Collection<EntityContact> items) {
+        for (EntityContact item : system.values())
+            remove(item);
+        system.clear();
+
+        for (EntityContact item : items) {
+            system.put(item.email.toLowerCase(Locale.ROOT), item);
+            add(item);
+        }
+    }
+
+    static List<EntityContact> search(Context context, String query, boolean sent, boolean received) {
+        if (TextUtils.isEmpty(query))
+            return new ArrayList<>();
+
+        // Device contacts are read on first use when the permission was granted after startup
+        ContactInfo.load(context);
+
+        synchronized (ContactIndex.class) {
+            if (dirty)
+                build(context);
+
+            String prefix = query.trim().toLowerCase(Locale.ROOT);
+            if (prefix.length() == 0)
+                return new ArrayList<>();
+
+            // Top-K by rank, lowest ranked first in the queue
+            Set<EntityContact> seen = newContactSet();
+            PriorityQueue<EntityContact> top = new PriorityQueue<>(MAX_SUGGESTIONS + 1, RANK);
+            for (Set<EntityContact> items : index.subMap(prefix, prefix + '\uffff').values())
+                for (EntityContact contact : items) {
+                    if (contact.id != 0) {
+                        if (contact.type == EntityContact.TYPE_TO && !sent)
+                            continue;
+                        if (contact.type == EntityContact.TYPE_FROM && !received)
+                            continue;
+                    }
+                    if (!seen.add(contact))
+                        continue;
+                    top.offer(contact);
+                    if (top.size() > MAX_SUGGESTIONS)
+                        top.poll();
+                }
+
+            // Return copies, the caller merges and sorts
+            List<EntityContact> result = new ArrayList<>(top.size());
+            for (EntityContact contact : top) {
+                EntityContact copy = new EntityContact();
+                copy.id = contact.id;
+                copy.account = contact.account;
+                copy.type = contact.type;
+                copy.email = contact.email;
+                copy.name = contact.name;
+                copy.avatar = contact.avatar;
+                copy.times_contacted = contact.times_contacted;
+                copy.last_contacted = contact.last_contacted;
+                copy.state = contact.state;
+                result.add(copy);
+            }
+            Collections.sort(result, Collections.reverseOrder(RANK));
+            return result;
+        }
+    }
+
+    private static void build(Context context) {
+        long start = System.currentTimeMillis();
+
+        index.clear();
+        contacts.clear();
+        keys.clear();
+
+        DB db = DB.getInstance(context);
+        for (EntityContact contact : db.contact().getContacts()) {
+            contacts.put(contact.id, contact);
+            keys.put(getKey(contact), contact);
+            add(contact);
+        }
+
+        for (EntityContact item : system.values())
+            add(item);
+
+        dirty = false;
+
+        Log.i("Contact index contacts=" + contacts.size() + " system=" + system.size() +
+                " elapsed=" + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static void add(EntityContact contact) {
+        for (String token : getTokens(contact)) {
+            Set<EntityContact> items = index.get(token);
+            if (items == null) {
+                items = newContactSet();
+                index.put(token, items);
+            }
+            items.add(contact);
+        }
+    }
+
+    private static void remove(EntityContact contact) {
+        for (String token : getTokens(contact)) {
+            Set<EntityContact> items = index.get(token);
+            if (items != null) {
+                items.remove(contact);
+                if (items.isEmpty())
+                    index.remove(token);
+            }
+        }
+    }
+
+    private static Set<EntityContact> newContactSet() {
+        // By instance, the statistics of indexed contacts change
+        return Collections.newSetFromMap(new IdentityHashMap<EntityContact, Boolean>());
+    }
+
+    private static String getKey(EntityContact contact) {
+        return contact.account + ":" + contact.type + ":" + contact.email.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> getTokens(EntityContact contact) {
+        Set<String> tokens = new HashSet<>();
+
+        if (!TextUtils.isEmpty(contact.email)) {
+            String email = contact.email.toLowerCase(Locale.ROOT);
+            tokens.add(email);
+            int at = email.indexOf('@');
+            if (at > 0)
+                for (String word : email.substring(0, at).split("[._+-]+"))
+                    if (!TextUtils.isEmpty(word))
+                        tokens.add(word);
+            if (at > 0 && at + 1 < email.length())
+                tokens.add(email.substring(at + 1));
+        }
+
+        if (!TextUtils.isEmpty(contact.name)) {
+            String name = contact.name.toLowerCase(Locale.ROOT).trim();
+            tokens.add(name);
+            for (String word : name.split("[\\s,.\"'()<>]+"))
+                if (!TextUtils.isEmpty(word))
+                    tokens.add(word);
+        }
+
+        return tokens;
+    }
+}
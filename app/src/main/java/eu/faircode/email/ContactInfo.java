@@ -90,6 +90,8 @@ public class ContactInfo {
     private boolean known;
     private long time;
 
+    private static boolean observing = false;
+    private static volatile boolean loaded = false;
     private static Map<String, Lookup> emailLookup = new ConcurrentHashMap<>();
     private static final Map<String, ContactInfo> emailContactInfo = new HashMap<>();
     private static final Map<String, Avatar> emailGravatar = new HashMap<>();
@@ -629,23 +631,6 @@ public class ContactInfo {
 
     static void init(final Context context) {
         if (Helper.hasPermission(context, Manifest.permission.READ_CONTACTS)) {
-            ContentObserver observer = new ContentObserver(ApplicationEx.getMainHandler()) {
-                @Override
-                public void onChange(boolean selfChange, Uri uri) {
-                    Log.i("Contact changed uri=" + uri);
-                    executorLookup.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                emailLookup = getEmailLookup(context);
-                            } catch (Throwable ex) {
-                                Log.e(ex);
-                            }
-                        }
-                    });
-                }
-            };
-
             executorLookup.submit(new Runnable() {
                 @Override
                 public void run() {
@@ -657,21 +642,57 @@ public class ContactInfo {
                 }
             });
 
-            try {
-                Uri uri = ContactsContract.CommonDataKinds.Email.CONTENT_URI;
-                Log.i("Observing uri=" + uri);
-                context.getContentResolver().registerContentObserver(uri, true, observer);
-            } catch (SecurityException ex) {
-                Log.w(ex);
-                /*
-                    Should never happen, but:
-                    Caused by: android.os.RemoteException:
-                      at com.android.server.content.ContentService.registerContentObserver (ContentService.java:340)
-                      at android.content.IContentService$Stub.onTransact (IContentService.java:76)
-                      at com.android.server.content.ContentService.onTransact (ContentService.java:262)
-                      at android.os.Binder.execTransact (Binder.java:731)
-                 */
+            observe(context);
+        }
+    }
+
+    static void load(Context context) {
+        // The permission can be granted while the app is running
+        if (loaded || !Helper.hasPermission(context, Manifest.permission.READ_CONTACTS))
+            return;
+
+        observe(context.getApplicationContext());
+        emailLookup = getEmailLookup(context);
+    }
+
+    private static void observe(final Context context) {
+        synchronized (ContactInfo.class) {
+            if (observing)
+                return;
+            observing = true;
+        }
+
+        ContentObserver observer = new ContentObserver(ApplicationEx.getMainHandler()) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                Log.i("Contact changed uri=" + uri);
+                executorLookup.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            emailLookup = getEmailLookup(context);
+                        } catch (Throwable ex) {
+                            Log.e(ex);
+                        }
+                    }
+                });
             }
+        };
+
+        try {
+            Uri uri = ContactsContract.CommonDataKinds.Email.CONTENT_URI;
+            Log.i("Observing uri=" + uri);
+            context.getContentResolver().registerContentObserver(uri, true, observer);
+        } catch (SecurityException ex) {
+            Log.w(ex);
+            /*
+                Should never happen, but:
+                Caused by: android.os.RemoteException:
+                  at com.android.server.content.ContentService.registerContentObserver (ContentService.java:340)
+                  at android.content.IContentService$Stub.onTransact (IContentService.java:76)
+                  at com.android.server.content.ContentService.onTransact (ContentService.java:262)
+                  at android.os.Binder.execTransact (Binder.java:731)
+             */
         }
     }
 
@@ -719,6 +740,7 @@ public class ContactInfo {
 
     private static Map<String, Lookup> getEmailLookup(Context context) {
         Map<String, Lookup> all = new ConcurrentHashMap<>();
+        Map<String, EntityContact> suggest = new HashMap<>();
 
         if (Helper.hasPermission(context, Manifest.permission.READ_CONTACTS)) {
             Log.i("Reading email/uri");
@@ -729,7 +751,9 @@ public class ContactInfo {
                             ContactsContract.CommonDataKinds.Photo.CONTACT_ID,
                             ContactsContract.Contacts.LOOKUP_KEY,
                             ContactsContract.CommonDataKinds.Email.ADDRESS,
-                            ContactsContract.Contacts.DISPLAY_NAME
+                            ContactsContract.Contacts.DISPLAY_NAME,
+                            ContactsContract.Contacts.PHOTO_THUMBNAIL_URI,
+                            ContactsContract.Contacts.STARRED
                     },
                     ContactsContract.CommonDataKinds.Email.ADDRESS + " <> ''",
                     null, null)) {
@@ -743,12 +767,27 @@ public class ContactInfo {
                     lookup.uri = ContactsContract.Contacts.getLookupUri(contactId, lookupKey);
                     lookup.displayName = displayName;
                     all.put(email.toLowerCase(Locale.ROOT), lookup);
+
+                    EntityContact item = new EntityContact();
+                    item.id = 0L;
+                    item.name = displayName;
+                    item.email = email;
+                    item.avatar = cursor.getString(4);
+                    item.times_contacted = (cursor.getInt(5) == 0 ? 0 : Integer.MAX_VALUE);
+                    item.last_contacted = 0L;
+                    EntityContact existing = suggest.get(email.toLowerCase(Locale.ROOT));
+                    if (existing == null ||
+                            (existing.avatar == null && item.avatar != null))
+                        suggest.put(email.toLowerCase(Locale.ROOT), item);
                 }
+                loaded = true;
             } catch (Throwable ex) {
                 Log.e(ex);
             }
         }
 
+        ContactIndex.setSystemContacts(suggest.values());
+
         Log.i("Read email/uri=" + all.size());
         return all;
     }
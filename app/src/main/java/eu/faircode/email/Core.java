@@ -94,12 +94,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -136,11 +138,10 @@ import static javax.mail.Folder.READ_WRITE;
 
 class Core {
     private static final int MAX_NOTIFICATION_COUNT = 10; // per group
-    private static final int SYNC_CHUNCK_SIZE = 200;
-    private static final int SYNC_BATCH_SIZE = 20;
-    private static final int DOWNLOAD_BATCH_SIZE = 20;
-    private static final int SYNC_YIELD_COUNT = 100;
+    private static final int POP_PREFETCH_SIZE = 100;
+    private static final long SYNC_CONTENTION_WAIT = 50; // milliseconds
     private static final long SYNC_YIELD_DURATION = 1000; // milliseconds
+    private static final int MAX_DELETE_UIDS = 500; // SQLite variables
     private static final int DOWNLOAD_YIELD_COUNT = 25;
     private static final long DOWNLOAD_YIELD_DURATION = 1000; // milliseconds
     private static final long YIELD_DURATION = 200L; // milliseconds
@@ -150,6 +151,7 @@ class Core {
     private static final long LOCAL_RETRY_DELAY = 5 * 1000L; // milliseconds
     private static final int TOTAL_RETRY_MAX = LOCAL_RETRY_MAX * 5;
     private static final int MAX_PREVIEW = 5000; // characters
+    private static final int MULTIAPPEND_BATCH_SIZE = 25;
 
     static void processOperations(
             Context context,
@@ -164,6 +166,7 @@ class Core {
 
             int retry = 0;
             boolean group = true;
+            Boolean multiappend = null;
             Log.i(folder.name + " executing operations=" + ops.size());
             while (retry < LOCAL_RETRY_MAX && ops.size() > 0 &&
                     state.isRunning() &&
@@ -218,6 +221,29 @@ class Core {
                                             (EntityOperation.ADD.equals(next.name) ||
                                                     EntityOperation.DELETE.equals(next.name)))
                                         skip = true;
+                                    else if (group &&
+                                            !folder.id.equals(message.folder) &&
+                                            EntityOperation.ADD.equals(next.name) &&
+                                            Objects.equals(op.args, next.args) &&
+                                            account.protocol == EntityAccount.TYPE_IMAP && !folder.local &&
+                                            similar.size() + 1 < MULTIAPPEND_BATCH_SIZE) {
+                                        // Cross account moves into the same folder
+                                        if (multiappend == null)
+                                            multiappend = MessageHelper.hasCapability((IMAPFolder) ifolder, "MULTIAPPEND");
+                                        if (multiappend) {
+                                            EntityMessage m = db.message().getMessage(next.message);
+                                            if (m != null && !folder.id.equals(m.folder)) {
+                                                boolean dup = false;
+                                                for (EntityMessage s : similar.values())
+                                                    if (s.id.equals(m.id)) {
+                                                        dup = true;
+                                                        break;
+                                                    }
+                                                if (!dup)
+                                                    similar.put(next, m);
+                                            }
+                                        }
+                                    }
                                     break;
 
                                 case EntityOperation.FETCH:
@@ -355,7 +381,10 @@ class Core {
                                     break;
 
                                 case EntityOperation.ADD:
-                                    onAdd(context, jargs, account, folder, message, (IMAPStore) istore, (IMAPFolder) ifolder, state);
+                                    List<EntityMessage> added = new ArrayList<>();
+                                    added.add(message);
+                                    added.addAll(similar.values());
+                                    onAdd(context, jargs, account, folder, added, (IMAPStore) istore, (IMAPFolder) ifolder, state);
                                     break;
 
                                 case EntityOperation.MOVE:
@@ -854,8 +883,8 @@ class Core {
         }
     }
 
-    private static void onAdd(Context context, JSONArray jargs, EntityAccount account, EntityFolder folder, EntityMessage message, IMAPStore istore, IMAPFolder ifolder, State state) throws MessagingException, IOException {
-        // Add message
+    private static void onAdd(Context context, JSONArray jargs, EntityAccount account, EntityFolder folder, List<EntityMessage> messages, IMAPStore istore, IMAPFolder ifolder, State state) throws MessagingException, IOException {
+        // Add messages
         DB db = DB.getInstance(context);
 
         if (folder.local) {
@@ -863,10 +892,6 @@ class Core {
             return;
         }
 
-        // Drafts can change accounts
-        if (jargs.length() == 0 && !folder.id.equals(message.folder))
-            throw new IllegalArgumentException("Message folder changed");
-
         // Get arguments
         long target = jargs.optLong(0, folder.id);
         boolean autoread = jargs.optBoolean(1, false);
@@ -874,109 +899,124 @@ class Core {
         if (target != folder.id)
             throw new IllegalArgumentException("Invalid folder");
 
-        // External draft might have a uid only
-        if (TextUtils.isEmpty(message.msgid)) {
-            message.msgid = EntityMessage.generateMessageId();
-            db.message().setMessageMsgId(message.id, message.msgid);
-        }
-
         Properties props = MessageHelper.getSessionProperties();
         Session isession = Session.getInstance(props, null);
         Flags flags = ifolder.getPermanentFlags();
 
-        // Get raw message
-        MimeMessage imessage;
-        File file = message.getRawFile(context);
-        if (folder.id.equals(message.folder)) {
-            // Pre flight check
-            if (!message.content)
-                throw new IllegalArgumentException("Message body missing");
+        Message[] imessages = new Message[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            EntityMessage message = messages.get(i);
 
-            imessage = MessageHelper.from(context, message, null, isession, false);
+            // Drafts can change accounts
+            if (jargs.length() == 0 && !folder.id.equals(message.folder))
+                throw new IllegalArgumentException("Message folder changed");
 
-            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
-                imessage.writeTo(os);
+            // External draft might have a uid only
+            if (TextUtils.isEmpty(message.msgid)) {
+                message.msgid = EntityMessage.generateMessageId();
+                db.message().setMessageMsgId(message.id, message.msgid);
             }
-        } else {
-            // Cross account move
-            if (!file.exists())
-                throw new IllegalArgumentException("raw message file not found");
 
-            Log.i(folder.name + " reading " + file);
-            try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
-                imessage = new MimeMessage(isession, is);
+            // Get raw message
+            MimeMessage imessage;
+            File file = message.getRawFile(context);
+            if (folder.id.equals(message.folder)) {
+                // Pre flight check
+                if (!message.content)
+                    throw new IllegalArgumentException("Message body missing");
+
+                imessage = MessageHelper.from(context, message, null, isession, false);
+
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+                    imessage.writeTo(os);
+                }
+            } else {
+                // Cross account move
+                if (!file.exists())
+                    throw new IllegalArgumentException("raw message file not found");
+
+                Log.i(folder.name + " reading " + file);
+                try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+                    imessage = new MimeMessage(isession, is);
+                }
             }
-        }
 
-        db.message().setMessageRaw(message.id, true);
-
-        // Check size
-        if (account.max_size != null) {
-            long size = file.length();
-            if (size > account.max_size) {
-                String msg = "Too large" +
-                        " size=" + Helper.humanReadableByteCount(size) +
-                        "/" + Helper.humanReadableByteCount(account.max_size) +
-                        " host=" + account.host;
-                Log.e(msg);
-                throw new IllegalArgumentException(msg);
+            db.message().setMessageRaw(message.id, true);
+
+            // Check size
+            if (account.max_size != null) {
+                long size = file.length();
+                if (size > account.max_size) {
+                    String msg = "Too large" +
+                            " size=" + Helper.humanReadableByteCount(size) +
+                            "/" + Helper.humanReadableByteCount(account.max_size) +
+                            " host=" + account.host;
+                    Log.e(msg);
+                    throw new IllegalArgumentException(msg);
+                }
             }
-        }
 
-        // Handle auto read
-        if (flags.contains(Flags.Flag.SEEN)) {
-            if (autoread && !imessage.isSet(Flags.Flag.SEEN)) {
-                Log.i(folder.name + " autoread");
-                imessage.setFlag(Flags.Flag.SEEN, true);
+            // Handle auto read
+            if (flags.contains(Flags.Flag.SEEN)) {
+                if (autoread && !imessage.isSet(Flags.Flag.SEEN)) {
+                    Log.i(folder.name + " autoread");
+                    imessage.setFlag(Flags.Flag.SEEN, true);
+                }
             }
-        }
 
-        // Handle draft
-        if (flags.contains(Flags.Flag.DRAFT))
-            imessage.setFlag(Flags.Flag.DRAFT, EntityFolder.DRAFTS.equals(folder.type));
+            // Handle draft
+            if (flags.contains(Flags.Flag.DRAFT))
+                imessage.setFlag(Flags.Flag.DRAFT, EntityFolder.DRAFTS.equals(folder.type));
 
-        // Add message
-        Long newuid = null;
-        if (MessageHelper.hasCapability(ifolder, "UIDPLUS")) {
+            imessages[i] = imessage;
+        }
+
+        // Add messages
+        AppendUID[] uids = null;
+        if (imessages.length > 1) {
+            // https://tools.ietf.org/html/rfc3502
+            Log.i(folder.name + " multiappend count=" + imessages.length);
+            uids = ifolder.multiAppendUIDMessages(imessages);
+        } else if (MessageHelper.hasCapability(ifolder, "UIDPLUS")) {
             // https://tools.ietf.org/html/rfc4315
-            AppendUID[] uids = ifolder.appendUIDMessages(new Message[]{imessage});
-            if (uids != null && uids.length > 0 && uids[0] != null && uids[0].uid > 0) {
-                newuid = uids[0].uid;
+            uids = ifolder.appendUIDMessages(imessages);
+        } else
+            ifolder.appendMessages(imessages);
+
+        for (int i = 0; i < messages.size(); i++) {
+            EntityMessage message = messages.get(i);
+
+            Long newuid = null;
+            if (uids != null && i < uids.length && uids[i] != null && uids[i].uid > 0) {
+                newuid = uids[i].uid;
                 Log.i(folder.name + " appended uid=" + newuid);
             }
-        } else
-            ifolder.appendMessages(new Message[]{imessage});
 
-        if (folder.id.equals(message.folder)) {
-            // Prevent deleting message
-            db.message().setMessageUid(message.id, null);
+            if (folder.id.equals(message.folder)) {
+                // Prevent deleting message
+                db.message().setMessageUid(message.id, null);
 
-            // Some providers do not list the new message yet
-            Long found = findUid(ifolder, message.msgid, true);
-            if (found != null)
+                // Some providers do not list the new message yet
                 if (newuid == null)
-                    newuid = found;
-                else if (!newuid.equals(found)) {
-                    Log.e(folder.name + " Added=" + newuid + " found=" + found);
-                    newuid = Math.max(newuid, found);
-                }
+                    newuid = findUid(ifolder, message.msgid, true);
 
-            if (newuid != null && (message.uid == null || newuid > message.uid))
-                try {
-                    Log.i(folder.name + " Fetching uid=" + newuid);
-                    JSONArray fargs = new JSONArray();
-                    fargs.put(newuid);
-                    onFetch(context, fargs, folder, istore, ifolder, state);
-                } catch (Throwable ex) {
-                    Log.e(ex);
-                }
-        } else {
-            // Mark source read
-            if (autoread)
-                EntityOperation.queue(context, message, EntityOperation.SEEN, true);
+                if (newuid != null && (message.uid == null || newuid > message.uid))
+                    try {
+                        Log.i(folder.name + " Fetching uid=" + newuid);
+                        JSONArray fargs = new JSONArray();
+                        fargs.put(newuid);
+                        onFetch(context, fargs, folder, istore, ifolder, state);
+                    } catch (Throwable ex) {
+                        Log.e(ex);
+                    }
+            } else {
+                // Mark source read
+                if (autoread)
+                    EntityOperation.queue(context, message, EntityOperation.SEEN, true);
 
-            // Delete source
-            EntityOperation.queue(context, message, EntityOperation.DELETE);
+                // Delete source
+                EntityOperation.queue(context, message, EntityOperation.DELETE);
+            }
         }
     }
 
@@ -1150,6 +1190,8 @@ class Core {
                         String email = ((InternetAddress) recipient).getAddress();
                         int count = db.contact().deleteContact(target.account, EntityContact.TYPE_FROM, email);
                         Log.i("Deleted contact email=" + email + " count=" + count);
+                        if (count > 0)
+                            ContactIndex.invalidate();
                     }
             }
     }
@@ -1496,12 +1538,13 @@ class Core {
         MessageHelper.MessageParts parts = helper.getMessageParts();
         String body = parts.getHtml(context);
         File file = message.getFile(context);
-        Helper.writeText(file, body);
+        Helper.writeCompressed(file, body);
+        MessageArtifacts artifacts = MessageArtifacts.get(message);
         db.message().setMessageContent(message.id,
                 true,
-                HtmlHelper.getLanguage(context, body),
+                artifacts.getLanguage(context, file),
                 parts.isPlainOnly(),
-                HtmlHelper.getPreview(body),
+                artifacts.getPreview(file),
                 parts.getWarnings(message.warning));
         MessageClassifier.classify(message, folder, null, context);
 
@@ -1996,6 +2039,7 @@ class Core {
             db.folder().setFolderSyncState(folder.id, "downloading");
 
             boolean hasUidl = caps.containsKey("UIDL");
+            boolean hasPipelining = caps.containsKey("PIPELINING");
             if (hasUidl) {
                 FetchProfile ifetch = new FetchProfile();
                 ifetch.add(UIDFolder.FetchProfileItem.UID);
@@ -2036,9 +2080,13 @@ class Core {
                         if (id.msgid != null)
                             known.put(id.msgid, id);
 
-                    for (Message imessage : imessages) {
+                    for (int i = 0; i < imessages.length; i++) {
+                        if (hasPipelining && i % POP_PREFETCH_SIZE == 0)
+                            prefetchHeaders(ifolder, imessages, i, false, uidlMsgId);
+
+                        Message imessage = imessages[i];
                         MessageHelper helper = new MessageHelper((MimeMessage) imessage, context);
-                        String msgid = helper.getMessageID(); // expensive!
+                        String msgid = helper.getMessageID();
                         if (!TextUtils.isEmpty(msgid))
                             known.remove(msgid);
                     }
@@ -2050,11 +2098,15 @@ class Core {
                 }
             }
 
-            for (Message imessage : imessages)
+            for (int i = 0; i < imessages.length; i++) {
+                Message imessage = imessages[i];
                 try {
                     if (!state.isRunning())
                         return;
 
+                    if (hasPipelining && i % POP_PREFETCH_SIZE == 0)
+                        prefetchHeaders(ifolder, imessages, i, hasUidl, uidlMsgId);
+
                     MessageHelper helper = new MessageHelper((MimeMessage) imessage, context);
 
                     String uidl;
@@ -2195,7 +2247,7 @@ class Core {
                                 attachment.id = db.attachment().insertAttachment(attachment);
                             }
 
-                            runRules(context, imessage, account, folder, message, rules);
+                            runRules(context, imessage, account, folder, message, rules, false);
                             reportNewMessage(context, account, folder, message);
 
                             db.setTransactionSuccessful();
@@ -2205,18 +2257,22 @@ class Core {
 
                         String body = parts.getHtml(context);
                         File file = message.getFile(context);
-                        Helper.writeText(file, body);
+                        Helper.writeCompressed(file, body);
+                        MessageArtifacts artifacts = MessageArtifacts.get(message);
                         db.message().setMessageContent(message.id,
                                 true,
-                                HtmlHelper.getLanguage(context, body),
+                                artifacts.getLanguage(context, file),
                                 parts.isPlainOnly(),
-                                HtmlHelper.getPreview(body),
+                                artifacts.getPreview(file),
                                 parts.getWarnings(message.warning));
 
                         for (EntityAttachment attachment : parts.getAttachments())
                             if (attachment.subsequence == null)
                                 parts.downloadAttachment(context, attachment);
 
+                        if (folder.notify && !message.ui_seen)
+                            RenderCache.prerender(context, message.id);
+
                         if (message.received > account.created)
                             updateContactInfo(context, folder, message);
                     } catch (Throwable ex) {
@@ -2225,6 +2281,7 @@ class Core {
                 } finally {
                     ((POP3Message) imessage).invalidate(true);
                 }
+            }
 
             db.folder().setFolderLastSync(folder.id, new Date().getTime());
             EntityLog.log(context, folder.name + " POP done");
@@ -2233,6 +2290,29 @@ class Core {
         }
     }
 
+    private static void prefetchHeaders(
+            POP3Folder ifolder, Message[] imessages, int from,
+            boolean hasUidl, Map<String, String> uidlMsgId) throws MessagingException {
+        // Pipelined TOP commands, if the server supports pipelining
+        List<Message> pending = new ArrayList<>();
+        for (int i = from; i < Math.min(from + POP_PREFETCH_SIZE, imessages.length); i++)
+            if (hasUidl) {
+                String uidl = ifolder.getUID(imessages[i]);
+                if (!TextUtils.isEmpty(uidl) && !uidlMsgId.containsKey(uidl))
+                    pending.add(imessages[i]);
+            } else
+                pending.add(imessages[i]);
+
+        if (pending.size() > 0) {
+            long start = new Date().getTime();
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            ifolder.fetch(pending.toArray(new Message[0]), fp);
+            Log.i(ifolder.getName() + " POP prefetched headers=" + pending.size() +
+                    " " + (new Date().getTime() - start) + " ms");
+        }
+    }
+
     private static void onSynchronizeMessages(
             Context context, JSONArray jargs,
             EntityAccount account, final EntityFolder folder,
@@ -2436,7 +2516,8 @@ class Core {
                         if (first > 0)
                             ranges.add(new Pair<>(first, last < 0 ? first : last));
 
-                        List<List<Pair<Long, Long>>> chunks = Helper.chunkList(ranges, SYNC_CHUNCK_SIZE);
+                        int chunk_size = FetchTuner.get(context, account.id, FetchTuner.CHUNK);
+                        List<List<Pair<Long, Long>>> chunks = Helper.chunkList(ranges, chunk_size);
 
                         Log.i(folder.name + " executing uid fetch count=" + uids.size() +
                                 " ranges=" + ranges.size() + " chunks=" + chunks.size());
@@ -2454,7 +2535,10 @@ class Core {
                                     sb.append(range.first).append(':').append(range.second);
                             }
                             String command = "UID FETCH " + sb + " (UID FLAGS)";
+                            long started = SystemClock.elapsedRealtime();
                             Response[] responses = protocol.command(command, null);
+                            FetchTuner.update(context, account.id, FetchTuner.CHUNK,
+                                    chunk.size(), SystemClock.elapsedRealtime() - started);
 
                             if (responses.length > 0 && responses[responses.length - 1].isOK()) {
                                 for (Response response : responses)
@@ -2488,9 +2572,20 @@ class Core {
 
             // Delete local messages not at remote
             Log.i(folder.name + " delete=" + uids.size());
-            for (Long uid : uids) {
-                int count = db.message().deleteMessage(folder.id, uid);
-                Log.i(folder.name + " delete local uid=" + uid + " count=" + count);
+            if (uids.size() > 0) {
+                try {
+                    db.beginTransaction();
+
+                    int count = 0;
+                    for (int i = 0; i < uids.size(); i += MAX_DELETE_UIDS)
+                        count += db.message().deleteMessages(folder.id,
+                                uids.subList(i, Math.min(uids.size(), i + MAX_DELETE_UIDS)));
+                    Log.i(folder.name + " deleted local count=" + count);
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             }
 
             List<EntityRule> rules = db.rule().getEnabledRules(folder.id);
@@ -2507,11 +2602,10 @@ class Core {
                 fp.add(GmailFolder.FetchProfileItem.THRID);
 
             // Add/update local messages
-            int synced = 0;
             Long[] ids = new Long[imessages.length];
             Log.i(folder.name + " add=" + imessages.length);
-            for (int i = imessages.length - 1; i >= 0 && state.isRunning() && state.isRecoverable(); i -= SYNC_BATCH_SIZE) {
-                int from = Math.max(0, i - SYNC_BATCH_SIZE + 1);
+            for (int i = imessages.length - 1, from; i >= 0 && state.isRunning() && state.isRecoverable(); i = from - 1) {
+                from = Math.max(0, i - FetchTuner.get(context, account.id, FetchTuner.BATCH) + 1);
                 Message[] isub = Arrays.copyOfRange(imessages, from, i + 1);
 
                 // Full fetch new/changed messages only
@@ -2525,8 +2619,10 @@ class Core {
                 if (full.size() > 0) {
                     long headers = SystemClock.elapsedRealtime();
                     ifolder.fetch(full.toArray(new Message[0]), fp);
+                    long elapsed = SystemClock.elapsedRealtime() - headers;
                     stats.headers += full.size();
-                    stats.headers_ms += (SystemClock.elapsedRealtime() - headers);
+                    stats.headers_ms += elapsed;
+                    FetchTuner.update(context, account.id, FetchTuner.BATCH, full.size(), elapsed);
                     Log.i(folder.name + " fetched headers=" + full.size() + " " + stats.headers_ms + " ms");
                 }
 
@@ -2541,57 +2637,180 @@ class Core {
                 Log.breadcrumb("sync", crumb);
                 Log.i("Sync " + from + ".." + i + " free=" + free);
 
-                for (int j = isub.length - 1; j >= 0 && state.isRunning() && state.isRecoverable(); j--)
+                // Sender checks do network lookups, which should not hold the batch transaction
+                Map<Long, SenderCheck> checks = new HashMap<>();
+                for (Message imessage : full)
                     try {
-                        // Some providers erroneously return old messages
-                        if (full.contains(isub[j]))
-                            try {
-                                Date received = isub[j].getReceivedDate();
-                                boolean unseen = (sync_unseen && !isub[j].isSet(Flags.Flag.SEEN));
-                                boolean flagged = (sync_flagged && isub[j].isSet(Flags.Flag.FLAGGED));
-                                if (received != null && received.getTime() < keep_time && !unseen && !flagged) {
-                                    long uid = ifolder.getUID(isub[j]);
-                                    Log.i(folder.name + " Skipping old uid=" + uid + " date=" + received);
-                                    ids[from + j] = null;
-                                    continue;
-                                }
-                            } catch (Throwable ex) {
-                                Log.w(ex);
+                        checks.put(ifolder.getUID(imessage),
+                                checkSender(context, folder, new MessageHelper((MimeMessage) imessage, context)));
+                    } catch (Throwable ex) {
+                        Log.w(folder.name, ex);
+                    }
+
+                // Apply the batch in one transaction
+                // A failed nested transaction rolls back the whole batch, so retry message by message then
+                boolean grouped = true;
+                try {
+                    while (true) {
+                        // Resolve the threads of all new messages of the batch at once
+                        ThreadIndex threads = new ThreadIndex(account.id);
+                        try {
+                            List<String> refs = new ArrayList<>();
+                            for (Message imessage : full)
+                                refs.addAll(new MessageHelper((MimeMessage) imessage, context).getThreadRefs());
+                            threads.prefetch(context, refs);
+                        } catch (Throwable ex) {
+                            Log.w(folder.name, ex);
+                        }
+
+                        // Contact statistics are written once per batch
+                        ContactBatch contacts = new ContactBatch();
+
+                        // Side effects and network fetches wait until the batch has been committed
+                        List<Deferred> deferred = new ArrayList<>();
+
+                        int count = 0;
+                        boolean failed = false;
+                        boolean committed = false;
+                        long start = SystemClock.elapsedRealtime();
+                        long wait = 0;
+                        try {
+                            if (grouped) {
+                                db.beginTransaction();
+                                wait = SystemClock.elapsedRealtime() - start;
                             }
 
-                        EntityMessage message = synchronizeMessage(
-                                context,
-                                account, folder,
-                                istore, ifolder, (MimeMessage) isub[j],
-                                false, download && initialize == 0,
-                                rules, state, stats);
-                        ids[from + j] = (message == null || message.ui_hide ? null : message.id);
+                            for (int j = isub.length - 1; j >= 0 && state.isRunning() && state.isRecoverable(); j--)
+                                try {
+                                    // Some providers erroneously return old messages
+                                    if (full.contains(isub[j]))
+                                        try {
+                                            Date received = isub[j].getReceivedDate();
+                                            boolean unseen = (sync_unseen && !isub[j].isSet(Flags.Flag.SEEN));
+                                            boolean flagged = (sync_flagged && isub[j].isSet(Flags.Flag.FLAGGED));
+                                            if (received != null && received.getTime() < keep_time && !unseen && !flagged) {
+                                                long uid = ifolder.getUID(isub[j]);
+                                                Log.i(folder.name + " Skipping old uid=" + uid + " date=" + received);
+                                                ids[from + j] = null;
+                                                continue;
+                                            }
+                                        } catch (Throwable ex) {
+                                            Log.w(ex);
+                                        }
+
+                                    EntityMessage message = synchronizeMessage(
+                                            context,
+                                            account, folder,
+                                            istore, ifolder, (MimeMessage) isub[j],
+                                            false, download && initialize == 0,
+                                            rules, state, stats, contacts, threads,
+                                            grouped ? deferred : null, checks);
+                                    ids[from + j] = (message == null || message.ui_hide ? null : message.id);
+
+                                    if (message != null && full.contains(isub[j]))
+                                        count++;
+                                } catch (FolderClosedException ex) {
+                                    throw ex;
+                                } catch (Throwable ex) {
+                                    if (grouped) {
+                                        Log.w(folder.name + " batch failed", ex);
+                                        failed = true;
+                                        break;
+                                    }
 
-                        if (message != null && full.contains(isub[j]))
-                            if ((++synced % SYNC_YIELD_COUNT) == 0)
+                                    if (ex instanceof MessageRemovedException)
+                                        Log.w(folder.name, ex);
+                                    else if (ex instanceof IOException && !(ex.getCause() instanceof MessagingException))
+                                        throw ex;
+                                    else {
+                                        if (ex instanceof IOException)
+                                            Log.w(folder.name, ex);
+                                        else
+                                            Log.e(folder.name, ex);
+                                        db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
+                                    }
+                                }
+
+                            if (grouped && !failed) {
+                                db.setTransactionSuccessful();
+                                committed = true;
+                            }
+                        } finally {
+                            if (grouped)
+                                db.endTransaction();
+                            else
                                 try {
-                                    Log.i(folder.name + " yield synced=" + synced);
-                                    Thread.sleep(SYNC_YIELD_DURATION);
-                                } catch (InterruptedException ex) {
-                                    Log.w(ex);
+                                    contacts.flush(context);
+                                } catch (Throwable ex) {
+                                    Log.e(folder.name, ex);
                                 }
-                    } catch (MessageRemovedException ex) {
-                        Log.w(folder.name, ex);
-                    } catch (FolderClosedException ex) {
-                        throw ex;
-                    } catch (IOException ex) {
-                        if (ex.getCause() instanceof MessagingException) {
-                            Log.w(folder.name, ex);
-                            db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
-                        } else
-                            throw ex;
-                    } catch (Throwable ex) {
-                        Log.e(folder.name, ex);
-                        db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
-                    } finally {
-                        // Free memory
-                        ((IMAPMessage) isub[j]).invalidateHeaders();
+                        }
+
+                        // A nested transaction which ended without success rolls back the batch silently
+                        if (committed) {
+                            Long last = null;
+                            for (Deferred d : deferred)
+                                if (d.added)
+                                    last = d.message.id;
+                            if (last != null && db.message().getMessage(last) == null) {
+                                Log.w(folder.name + " batch rolled back");
+                                failed = true;
+                            } else
+                                try {
+                                    contacts.flush(context);
+                                } catch (Throwable ex) {
+                                    Log.e(folder.name, ex);
+                                }
+                        }
+
+                        if (failed) {
+                            grouped = false;
+                            continue;
+                        }
+
+                        for (Deferred d : deferred) {
+                            if (!state.isRunning() || !state.isRecoverable())
+                                break;
+                            try {
+                                if (d.added)
+                                    onMessageAdded(context, account, folder, istore, d.message, d.parts, d.download, state, stats);
+                                else
+                                    onMessageProcessed(context, account, folder, d.message);
+                            } catch (FolderClosedException ex) {
+                                throw ex;
+                            } catch (Throwable ex) {
+                                if (ex instanceof MessageRemovedException)
+                                    Log.w(folder.name, ex);
+                                else if (ex instanceof IOException && !(ex.getCause() instanceof MessagingException))
+                                    throw ex;
+                                else {
+                                    Log.e(folder.name, ex);
+                                    db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
+                                }
+                            }
+                        }
+
+                        long busy = SystemClock.elapsedRealtime() - start;
+                        stats.synced += count;
+                        stats.synced_ms += busy;
+
+                        // Give way to other writers when the database was contended
+                        if (wait > SYNC_CONTENTION_WAIT)
+                            try {
+                                long sleep = Math.min(busy, SYNC_YIELD_DURATION);
+                                Log.i(folder.name + " yield wait=" + wait + " busy=" + busy + " ms");
+                                Thread.sleep(sleep);
+                            } catch (InterruptedException ex) {
+                                Log.w(ex);
+                            }
+
+                        break;
                     }
+                } finally {
+                    // Free memory
+                    for (Message imessage : isub)
+                        ((IMAPMessage) imessage).invalidateHeaders();
+                }
             }
 
             // Delete not synchronized messages without uid
@@ -2609,8 +2828,8 @@ class Core {
                 // Download messages/attachments
                 int downloaded = 0;
                 Log.i(folder.name + " download=" + imessages.length);
-                for (int i = imessages.length - 1; i >= 0 && state.isRunning() && state.isRecoverable(); i -= DOWNLOAD_BATCH_SIZE) {
-                    int from = Math.max(0, i - DOWNLOAD_BATCH_SIZE + 1);
+                for (int i = imessages.length - 1, from; i >= 0 && state.isRunning() && state.isRecoverable(); i = from - 1) {
+                    from = Math.max(0, i - FetchTuner.get(context, account.id, FetchTuner.DOWNLOAD) + 1);
 
                     Message[] isub = Arrays.copyOfRange(imessages, from, i + 1);
                     // Fetch on demand
@@ -2626,16 +2845,23 @@ class Core {
                     Log.breadcrumb("download", crumb);
                     Log.i("Download " + from + ".." + i + " free=" + free);
 
+                    int fetches = 0;
+                    long busy = 0;
+                    long bytes = stats.content + stats.attachments;
                     for (int j = isub.length - 1; j >= 0 && state.isRunning() && state.isRecoverable(); j--)
                         try {
                             if (ids[from + j] != null) {
+                                long started = SystemClock.elapsedRealtime();
                                 boolean fetched = downloadMessage(
                                         context,
                                         account, folder,
                                         istore, ifolder,
                                         (MimeMessage) isub[j], ids[from + j],
                                         state, stats);
-                                if (fetched)
+                                if (fetched) {
+                                    fetches++;
+                                    busy += SystemClock.elapsedRealtime() - started;
+
                                     if ((++downloaded % DOWNLOAD_YIELD_COUNT) == 0)
                                         try {
                                             Log.i(folder.name + " yield downloaded=" + downloaded);
@@ -2643,6 +2869,7 @@ class Core {
                                         } catch (InterruptedException ex) {
                                             Log.w(ex);
                                         }
+                                }
                             }
                         } catch (FolderClosedException ex) {
                             throw ex;
@@ -2652,6 +2879,9 @@ class Core {
                             // Free memory
                             ((IMAPMessage) isub[j]).invalidateHeaders();
                         }
+
+                    FetchTuner.update(context, account.id, FetchTuner.DOWNLOAD, fetches, busy);
+                    FetchTuner.updateThroughput(context, account.id, stats.content + stats.attachments - bytes, busy);
                 }
             }
 
@@ -2691,6 +2921,17 @@ class Core {
             IMAPStore istore, IMAPFolder ifolder, MimeMessage imessage,
             boolean browsed, boolean download,
             List<EntityRule> rules, State state, SyncStats stats) throws MessagingException, IOException {
+        return synchronizeMessage(context, account, folder, istore, ifolder, imessage, browsed, download, rules, state, stats, null, null, null, null);
+    }
+
+    private static EntityMessage synchronizeMessage(
+            Context context,
+            EntityAccount account, EntityFolder folder,
+            IMAPStore istore, IMAPFolder ifolder, MimeMessage imessage,
+            boolean browsed, boolean download,
+            List<EntityRule> rules, State state, SyncStats stats,
+            ContactBatch contacts, ThreadIndex threads,
+            List<Deferred> deferred, Map<Long, SenderCheck> checks) throws MessagingException, IOException {
 
         long uid = ifolder.getUID(imessage);
         if (uid < 0) {
@@ -2741,7 +2982,9 @@ class Core {
                         " msgid=" + dup.msgid + " thread=" + dup.thread);
 
                 if (dup.folder.equals(folder.id)) {
-                    String thread = helper.getThreadId(context, account.id, uid);
+                    String thread = (threads == null
+                            ? helper.getThreadId(context, account.id, uid)
+                            : helper.getThreadId(context, account.id, uid, threads));
                     Log.i(folder.name + " found as id=" + dup.id +
                             " uid=" + dup.uid + "/" + uid +
                             " msgid=" + msgid + " thread=" + thread);
@@ -2815,7 +3058,9 @@ class Core {
             message.inreplyto = helper.getInReplyTo();
             // Local address contains control or whitespace in string ``mailing list someone@example.org''
             message.deliveredto = helper.getDeliveredTo();
-            message.thread = helper.getThreadId(context, account.id, uid);
+            message.thread = (threads == null
+                    ? helper.getThreadId(context, account.id, uid)
+                    : helper.getThreadId(context, account.id, uid, threads));
             message.priority = helper.getPriority();
             message.auto_submitted = helper.getAutoSubmitted();
             message.receipt_request = helper.getReceiptRequested();
@@ -2892,63 +3137,12 @@ class Core {
                 message.reply_domain = (warning == null);
             }
 
-            boolean check_mx = prefs.getBoolean("check_mx", false);
-            if (check_mx)
-                try {
-                    Address[] addresses = (message.reply == null || message.reply.length == 0
-                            ? message.from : message.reply);
-                    DnsHelper.checkMx(context, addresses);
-                    message.mx = true;
-                } catch (UnknownHostException ex) {
-                    message.mx = false;
-                    message.warning = ex.getMessage();
-                } catch (Throwable ex) {
-                    Log.e(folder.name, ex);
-                    message.warning = Log.formatThrowable(ex, false);
-                }
-
-            boolean check_spam = prefs.getBoolean("check_spam", false);
-            if (check_spam) {
-                String host = helper.getReceivedFromHost();
-                if (host != null) {
-                    try {
-                        InetAddress addr = InetAddress.getByName(host);
-                        Log.i("Received from " + host + "=" + addr);
-
-                        StringBuilder lookup = new StringBuilder();
-                        if (addr instanceof Inet4Address) {
-                            List<String> a = Arrays.asList(addr.getHostAddress().split("\\."));
-                            Collections.reverse(a);
-                            lookup.append(TextUtils.join(".", a)).append('.');
-                        } else if (addr instanceof Inet6Address) {
-                            StringBuilder sb = new StringBuilder();
-                            byte[] a = addr.getAddress();
-                            for (int i = 0; i < 8; i++)
-                                sb.append(String.format("%02x",
-                                        ((a[i << 1] << 8) & 0xff00) | (a[(i << 1) + 1] & 0xff)));
-                            sb.reverse();
-                            for (char kar : sb.toString().toCharArray())
-                                lookup.append(kar).append('.');
-                        }
-
-                        lookup.append("zen.spamhaus.org");
-
-                        try {
-                            InetAddress.getByName(lookup.toString());
-                            if (message.warning == null)
-                                message.warning = lookup.toString();
-                            else
-                                message.warning += ", " + lookup;
-                        } catch (UnknownHostException ignore) {
-                            // Not blocked
-                        }
-                    } catch (UnknownHostException ex) {
-                        Log.w(ex);
-                    } catch (Throwable ex) {
-                        Log.w(folder.name, ex);
-                    }
-                }
-            }
+            SenderCheck check = (checks == null ? null : checks.get(uid));
+            if (check == null)
+                check = checkSender(context, folder, helper);
+            if (check.mx != null)
+                message.mx = check.mx;
+            message.warning = check.warning;
 
             try {
                 db.beginTransaction();
@@ -2965,13 +3159,17 @@ class Core {
                     attachment.id = db.attachment().insertAttachment(attachment);
                 }
 
-                runRules(context, imessage, account, folder, message, rules);
+                runRules(context, imessage, account, folder, message, rules, deferred != null);
                 if (download && !message.ui_hide &&
                         MessageClassifier.isEnabled(context) && MessageClassifier.canClassify(folder.type))
                     db.message().setMessageUiHide(message.id, true);
 
                 db.setTransactionSuccessful();
             } catch (SQLiteConstraintException ex) {
+                // The failed nested transaction rolls back the batch, which is then retried message by message
+                if (deferred != null)
+                    throw ex;
+
                 Log.e(ex);
 
                 Map<String, String> crumb = new HashMap<>();
@@ -2986,45 +3184,15 @@ class Core {
             }
 
             if (message.received > account.created)
-                updateContactInfo(context, folder, message);
-
-            // Download small messages inline
-            if (download && !message.ui_hide) {
-                long maxSize;
-                if (state == null || state.networkState.isUnmetered())
-                    maxSize = MessageHelper.SMALL_MESSAGE_SIZE;
-                else {
-                    maxSize = prefs.getInt("download", MessageHelper.DEFAULT_DOWNLOAD_SIZE);
-                    if (maxSize == 0 || maxSize > MessageHelper.SMALL_MESSAGE_SIZE)
-                        maxSize = MessageHelper.SMALL_MESSAGE_SIZE;
-                }
-
-                if ((message.size != null && message.size < maxSize) ||
-                        (MessageClassifier.isEnabled(context)) && MessageClassifier.canClassify(folder.type)) {
-                    String body = parts.getHtml(context);
-                    File file = message.getFile(context);
-                    Helper.writeText(file, body);
-                    db.message().setMessageContent(message.id,
-                            true,
-                            HtmlHelper.getLanguage(context, body),
-                            parts.isPlainOnly(),
-                            HtmlHelper.getPreview(body),
-                            parts.getWarnings(message.warning));
-                    MessageClassifier.classify(message, folder, null, context);
-                    if (!message.ui_hide)
-                        db.message().setMessageUiHide(message.id, false);
-
-                    if (stats != null && body != null)
-                        stats.content += body.length();
-                    Log.i(folder.name + " inline downloaded message id=" + message.id +
-                            " size=" + message.size + "/" + (body == null ? null : body.length()));
-
-                    if (TextUtils.isEmpty(body) && parts.hasBody())
-                        reportEmptyMessage(context, state, account, istore);
-                }
-            }
+                if (contacts == null)
+                    updateContactInfo(context, folder, message);
+                else
+                    updateContactInfo(context, folder, message, contacts);
 
-            reportNewMessage(context, account, folder, message);
+            if (deferred == null)
+                onMessageAdded(context, account, folder, istore, message, parts, download, state, stats);
+            else
+                deferred.add(new Deferred(message, parts, download));
         } else {
             if (process) {
                 EntityIdentity identity = matchIdentity(context, folder, message);
@@ -3131,7 +3299,7 @@ class Core {
                     db.message().updateMessage(message);
 
                     if (process)
-                        runRules(context, imessage, account, folder, message, rules);
+                        runRules(context, imessage, account, folder, message, rules, deferred != null);
 
                     db.setTransactionSuccessful();
                 } finally {
@@ -3139,13 +3307,17 @@ class Core {
                 }
 
             if (process) {
-                updateContactInfo(context, folder, message);
-                MessageClassifier.classify(message, folder, null, context);
+                if (contacts == null)
+                    updateContactInfo(context, folder, message);
+                else
+                    updateContactInfo(context, folder, message, contacts);
+
+                if (deferred == null)
+                    onMessageProcessed(context, account, folder, message);
+                else
+                    deferred.add(new Deferred(message));
             } else
                 Log.d(folder.name + " unchanged uid=" + uid);
-
-            if (process)
-                reportNewMessage(context, account, folder, message);
         }
 
         if (syncSimilar && account.isGmail())
@@ -3236,7 +3408,7 @@ class Core {
     private static void runRules(
             Context context, Message imessage,
             EntityAccount account, EntityFolder folder, EntityMessage message,
-            List<EntityRule> rules) {
+            List<EntityRule> rules, boolean batched) {
 
         if (!ActivityBilling.isPro(context))
             return;
@@ -3250,6 +3422,9 @@ class Core {
                         break;
                 }
         } catch (Throwable ex) {
+            // A rule can fail in a nested transaction, which would roll back the batch silently
+            if (batched)
+                throw new IllegalStateException("Rule failed in batch", ex);
             Log.e(ex);
             db.message().setMessageError(message.id, Log.formatThrowable(ex));
         }
@@ -3282,6 +3457,12 @@ class Core {
     }
 
     private static void updateContactInfo(Context context, final EntityFolder folder, final EntityMessage message) {
+        ContactBatch batch = new ContactBatch();
+        updateContactInfo(context, folder, message, batch);
+        batch.flush(context);
+    }
+
+    private static void updateContactInfo(Context context, final EntityFolder folder, final EntityMessage message, ContactBatch batch) {
         DB db = DB.getInstance(context);
 
         if (EntityFolder.DRAFTS.equals(folder.type) ||
@@ -3295,17 +3476,21 @@ class Core {
         // Check if from self
         if (type == EntityContact.TYPE_FROM) {
             if (message.from != null) {
-                List<EntityIdentity> identities = db.identity().getSynchronizingIdentities(folder.account);
-                if (identities != null) {
-                    for (Address sender : message.from) {
-                        for (EntityIdentity identity : identities)
-                            if (identity.similarAddress(sender)) {
-                                type = EntityContact.TYPE_TO;
-                                break;
-                            }
-                        if (type == EntityContact.TYPE_TO)
+                List<EntityIdentity> identities = batch.identities.get(folder.account);
+                if (identities == null) {
+                    identities = db.identity().getSynchronizingIdentities(folder.account);
+                    if (identities == null)
+                        identities = new ArrayList<>();
+                    batch.identities.put(folder.account, identities);
+                }
+                for (Address sender : message.from) {
+                    for (EntityIdentity identity : identities)
+                        if (identity.similarAddress(sender)) {
+                            type = EntityContact.TYPE_TO;
                             break;
-                    }
+                        }
+                    if (type == EntityContact.TYPE_TO)
+                        break;
                 }
             }
         }
@@ -3336,45 +3521,171 @@ class Core {
         for (Address address : addresses) {
             String email = ((InternetAddress) address).getAddress();
             String name = ((InternetAddress) address).getPersonal();
-            Uri avatar = ContactInfo.getLookupUri(new Address[]{address});
 
             if (TextUtils.isEmpty(email))
                 continue;
             if (TextUtils.isEmpty(name))
                 name = null;
 
+            String key = folder.account + ":" + type + ":" + email.toLowerCase(Locale.ROOT);
+            EntityContact contact = batch.contacts.get(key);
+            if (contact == null) {
+                Uri avatar = ContactInfo.getLookupUri(new Address[]{address});
+
+                contact = new EntityContact();
+                contact.account = folder.account;
+                contact.type = type;
+                contact.email = email;
+                contact.name = name;
+                contact.avatar = (avatar == null ? null : avatar.toString());
+                contact.times_contacted = 1;
+                contact.first_contacted = message.received;
+                contact.last_contacted = message.received;
+                batch.contacts.put(key, contact);
+            } else {
+                if (contact.name == null && name != null)
+                    contact.name = name;
+                contact.times_contacted++;
+                contact.first_contacted = Math.min(contact.first_contacted, message.received);
+                contact.last_contacted = Math.max(contact.last_contacted, message.received);
+            }
+        }
+    }
+
+    private static void onMessageAdded(
+            Context context, EntityAccount account, EntityFolder folder, IMAPStore istore,
+            EntityMessage message, MessageHelper.MessageParts parts, boolean download,
+            State state, SyncStats stats) throws MessagingException, IOException {
+        DB db = DB.getInstance(context);
+
+        // Content restored from a backup
+        if (BackupHelper.restore(context, message)) {
+            MessageClassifier.classify(message, folder, null, context);
+            if (!message.ui_hide)
+                db.message().setMessageUiHide(message.id, false);
+        }
+
+        // Download small messages inline
+        if (download && !message.content && !message.ui_hide)
+            downloadInline(context, account, folder, istore, message, parts, state, stats);
+
+        reportNewMessage(context, account, folder, message);
+    }
+
+    private static void onMessageProcessed(
+            Context context, EntityAccount account, EntityFolder folder, EntityMessage message) {
+        MessageClassifier.classify(message, folder, null, context);
+        reportNewMessage(context, account, folder, message);
+    }
+
+    private static SenderCheck checkSender(
+            Context context, EntityFolder folder, MessageHelper helper) throws MessagingException {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SenderCheck check = new SenderCheck();
+
+        boolean check_mx = prefs.getBoolean("check_mx", false);
+        if (check_mx)
             try {
-                db.beginTransaction();
+                Address[] reply = helper.getReply();
+                Address[] addresses = (reply == null || reply.length == 0 ? helper.getFrom() : reply);
+                DnsHelper.checkMx(context, addresses);
+                check.mx = true;
+            } catch (UnknownHostException ex) {
+                check.mx = false;
+                check.warning = ex.getMessage();
+            } catch (Throwable ex) {
+                Log.e(folder.name, ex);
+                check.warning = Log.formatThrowable(ex, false);
+            }
 
-                EntityContact contact = db.contact().getContact(folder.account, type, email);
-                if (contact == null) {
-                    contact = new EntityContact();
-                    contact.account = folder.account;
-                    contact.type = type;
-                    contact.email = email;
-                    contact.name = name;
-                    contact.avatar = (avatar == null ? null : avatar.toString());
-                    contact.times_contacted = 1;
-                    contact.first_contacted = message.received;
-                    contact.last_contacted = message.received;
-                    contact.id = db.contact().insertContact(contact);
-                    Log.i("Inserted contact=" + contact + " type=" + type);
-                } else {
-                    if (contact.name == null && name != null)
-                        contact.name = name;
-                    contact.avatar = (avatar == null ? null : avatar.toString());
-                    contact.times_contacted++;
-                    contact.first_contacted = Math.min(contact.first_contacted, message.received);
-                    contact.last_contacted = message.received;
-                    db.contact().updateContact(contact);
-                    Log.i("Updated contact=" + contact + " type=" + type);
-                }
+        boolean check_spam = prefs.getBoolean("check_spam", false);
+        if (check_spam) {
+            String host = helper.getReceivedFromHost();
+            if (host != null) {
+                try {
+                    InetAddress addr = InetAddress.getByName(host);
+                    Log.i("Received from " + host + "=" + addr);
+
+                    StringBuilder lookup = new StringBuilder();
+                    if (addr instanceof Inet4Address) {
+                        List<String> a = Arrays.asList(addr.getHostAddress().split("\\."));
+                        Collections.reverse(a);
+                        lookup.append(TextUtils.join(".", a)).append('.');
+                    } else if (addr instanceof Inet6Address) {
+                        StringBuilder sb = new StringBuilder();
+                        byte[] a = addr.getAddress();
+                        for (int i = 0; i < 8; i++)
+                            sb.append(String.format("%02x",
+                                    ((a[i << 1] << 8) & 0xff00) | (a[(i << 1) + 1] & 0xff)));
+                        sb.reverse();
+                        for (char kar : sb.toString().toCharArray())
+                            lookup.append(kar).append('.');
+                    }
 
-                db.setTransactionSuccessful();
-            } finally {
-                db.endTransaction();
+                    lookup.append("zen.spamhaus.org");
+
+                    try {
+                        InetAddress.getByName(lookup.toString());
+                        if (check.warning == null)
+                            check.warning = lookup.toString();
+                        else
+                            check.warning += ", " + lookup;
+                    } catch (UnknownHostException ignore) {
+                        // Not blocked
+                    }
+                } catch (UnknownHostException ex) {
+                    Log.w(ex);
+                } catch (Throwable ex) {
+                    Log.w(folder.name, ex);
+                }
             }
         }
+
+        return check;
+    }
+
+    private static void downloadInline(
+            Context context, EntityAccount account, EntityFolder folder, IMAPStore istore,
+            EntityMessage message, MessageHelper.MessageParts parts,
+            State state, SyncStats stats) throws MessagingException, IOException {
+        DB db = DB.getInstance(context);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        long maxSize;
+        if (state == null || state.networkState.isUnmetered())
+            maxSize = MessageHelper.SMALL_MESSAGE_SIZE;
+        else {
+            maxSize = prefs.getInt("download", MessageHelper.DEFAULT_DOWNLOAD_SIZE);
+            if (maxSize == 0 || maxSize > MessageHelper.SMALL_MESSAGE_SIZE)
+                maxSize = MessageHelper.SMALL_MESSAGE_SIZE;
+        }
+
+        if ((message.size != null && message.size < maxSize) ||
+                (MessageClassifier.isEnabled(context)) && MessageClassifier.canClassify(folder.type)) {
+            String body = parts.getHtml(context);
+            File file = message.getFile(context);
+            Helper.writeCompressed(file, body);
+            MessageArtifacts artifacts = MessageArtifacts.get(message);
+            db.message().setMessageContent(message.id,
+                    true,
+                    artifacts.getLanguage(context, file),
+                    parts.isPlainOnly(),
+                    artifacts.getPreview(file),
+                    parts.getWarnings(message.warning));
+            MessageClassifier.classify(message, folder, null, context);
+            if (folder.notify && !message.ui_seen)
+                RenderCache.prerender(context, message.id);
+            if (!message.ui_hide)
+                db.message().setMessageUiHide(message.id, false);
+
+            if (stats != null && body != null)
+                stats.content += body.length();
+            Log.i(folder.name + " inline downloaded message id=" + message.id +
+                    " size=" + message.size + "/" + (body == null ? null : body.length()));
+
+            if (TextUtils.isEmpty(body) && parts.hasBody())
+                reportEmptyMessage(context, state, account, istore);
+        }
     }
 
     private static boolean downloadMessage(
@@ -3438,14 +3749,17 @@ class Core {
                         (message.size != null && message.size < maxSize)) {
                     String body = parts.getHtml(context);
                     File file = message.getFile(context);
-                    Helper.writeText(file, body);
+                    Helper.writeCompressed(file, body);
+                    MessageArtifacts artifacts = MessageArtifacts.get(message);
                     db.message().setMessageContent(message.id,
                             true,
-                            HtmlHelper.getLanguage(context, body),
+                            artifacts.getLanguage(context, file),
                             parts.isPlainOnly(),
-                            HtmlHelper.getPreview(body),
+                            artifacts.getPreview(file),
                             parts.getWarnings(message.warning));
                     MessageClassifier.classify(message, folder, null, context);
+                    if (folder.notify && !message.ui_seen)
+                        RenderCache.prerender(context, message.id);
 
                     if (stats != null && body != null)
                         stats.content += body.length();
@@ -3505,7 +3819,9 @@ class Core {
         }
     }
 
-    static void notifyMessages(Context context, List<TupleMessageEx> messages, Map<Long, List<Long>> groupNotifying, boolean foreground) {
+    static void notifyMessages(Context context, List<TupleMessageNotify> messages,
+                               Map<Long, List<Long>> groupNotifying, Map<Long, TupleMessageNotify> notifyLast,
+                               boolean foreground) {
         if (messages == null)
             messages = new ArrayList<>();
 
@@ -3530,16 +3846,49 @@ class Core {
         if (redacted)
             notify_summary = true;
 
+        // Only groups with inserted, removed or changed messages need to be updated
+        Set<Long> groups = new HashSet<>();
+        if (notifyLast.isEmpty())
+            groups.addAll(groupNotifying.keySet());
+
+        Map<Long, TupleMessageNotify> current = new HashMap<>();
+        for (TupleMessageNotify message : messages) {
+            current.put(message.id, message);
+            TupleMessageNotify last = notifyLast.get(message.id);
+            if (!message.equals(last)) {
+                groups.add(getNotificationGroup(message, pro));
+                if (last != null)
+                    groups.add(getNotificationGroup(last, pro));
+            }
+        }
+        for (TupleMessageNotify last : notifyLast.values())
+            if (!current.containsKey(last.id))
+                groups.add(getNotificationGroup(last, pro));
+
+        notifyLast.clear();
+        notifyLast.putAll(current);
+
         Log.i("Notify messages=" + messages.size() +
+                " groups=" + groups.size() +
                 " biometrics=" + biometrics + "/" + biometric_notify +
                 " summary=" + notify_summary);
 
-        Map<Long, List<TupleMessageEx>> groupMessages = new HashMap<>();
-        for (long group : groupNotifying.keySet())
+        if (groups.isEmpty())
+            return;
+
+        Map<Long, List<TupleMessageNotify>> groupMessages = new HashMap<>();
+        for (long group : groups) {
+            if (!groupNotifying.containsKey(group))
+                groupNotifying.put(group, new ArrayList<Long>());
             groupMessages.put(group, new ArrayList<>());
+        }
 
         // Current
-        for (TupleMessageEx message : messages) {
+        for (TupleMessageNotify message : messages) {
+            long group = getNotificationGroup(message, pro);
+            if (!groups.contains(group))
+                continue;
+
             // Check if notification channel enabled
             if (message.notifying == 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && pro) {
                 String channelId = message.getNotificationChannelId();
@@ -3562,14 +3911,6 @@ class Core {
                 continue;
             }
 
-            long group = (pro && message.accountNotify ? message.account : 0);
-            if (!message.folderUnified)
-                group = -message.folder;
-            if (!groupNotifying.containsKey(group))
-                groupNotifying.put(group, new ArrayList<Long>());
-            if (!groupMessages.containsKey(group))
-                groupMessages.put(group, new ArrayList<TupleMessageEx>());
-
             if (message.notifying != 0) {
                 long id = message.id * message.notifying;
                 if (!groupNotifying.get(group).contains(id) &&
@@ -3595,7 +3936,7 @@ class Core {
             List<Long> add = new ArrayList<>();
             List<Long> update = new ArrayList<>();
             List<Long> remove = new ArrayList<>(groupNotifying.get(group));
-            for (TupleMessageEx message : groupMessages.get(group)) {
+            for (TupleMessageNotify message : groupMessages.get(group)) {
                 long id = (message.content ? message.id : -message.id);
                 if (remove.contains(id)) {
                     remove.remove(id);
@@ -3624,9 +3965,23 @@ class Core {
                 continue;
             }
 
+            // Load the messages to display only
+            List<Long> ids = new ArrayList<>();
+            for (TupleMessageNotify message : groupMessages.get(group))
+                ids.add(message.id);
+            List<TupleMessageEx> display = new ArrayList<>();
+            if (ids.size() > 0) {
+                Map<Long, TupleMessageEx> loaded = new HashMap<>();
+                for (TupleMessageEx message : db.message().getUnseenNotify(ids))
+                    loaded.put(message.id, message);
+                for (Long id : ids)
+                    if (loaded.containsKey(id))
+                        display.add(loaded.get(id));
+            }
+
             // Build notifications
             List<NotificationCompat.Builder> notifications = getNotificationUnseen(context,
-                    group, groupMessages.get(group),
+                    group, display,
                     notify_summary, new_messages,
                     redacted);
 
@@ -3684,6 +4039,15 @@ class Core {
         }
     }
 
+    private static long getNotificationGroup(TupleMessageNotify message, boolean pro) {
+        // < 0: folder
+        // = 0: unified
+        // > 0: account
+        if (!message.folderUnified)
+            return -message.folder;
+        return (pro && message.accountNotify ? message.account : 0);
+    }
+
     private static List<NotificationCompat.Builder> getNotificationUnseen(
             Context context,
             long group, List<TupleMessageEx> messages,
@@ -4162,7 +4526,7 @@ class Core {
                 if (notify_preview_all)
                     try {
                         File file = message.getFile(context);
-                        preview = HtmlHelper.getFullText(file);
+                        preview = MessageArtifacts.get(message).getFullText(file);
                         if (preview != null && preview.length() > MAX_PREVIEW)
                             preview = preview.substring(0, MAX_PREVIEW);
                     } catch (Throwable ex) {
@@ -4561,6 +4925,30 @@ class Core {
         }
     }
 
+    private static class Deferred {
+        private EntityMessage message;
+        private boolean added;
+        private MessageHelper.MessageParts parts;
+        private boolean download;
+
+        Deferred(EntityMessage message) {
+            this.message = message;
+            this.added = false;
+        }
+
+        Deferred(EntityMessage message, MessageHelper.MessageParts parts, boolean download) {
+            this.message = message;
+            this.added = true;
+            this.parts = parts;
+            this.download = download;
+        }
+    }
+
+    private static class SenderCheck {
+        private Boolean mx;
+        private String warning;
+    }
+
     private static class SyncStats {
         long search_ms;
         int flags;
@@ -4569,6 +4957,8 @@ class Core {
         long uids_ms;
         int headers;
         long headers_ms;
+        int synced;
+        long synced_ms;
         long content;
         long attachments;
         long total;
@@ -4581,6 +4971,8 @@ class Core {
                     uids_ms == 0 &&
                     headers == 0 &&
                     headers_ms == 0 &&
+                    synced == 0 &&
+                    synced_ms == 0 &&
                     content == 0 &&
                     attachments == 0 &&
                     total == 0);
@@ -4592,9 +4984,59 @@ class Core {
                     " flags=" + flags + "/" + flags_ms + " ms" +
                     " uids=" + uids + "/" + uids_ms + " ms" +
                     " headers=" + headers + "/" + headers_ms + " ms" +
+                    " synced=" + synced + "/" + synced_ms + " ms" +
+                    (synced_ms == 0 ? "" : " rate=" + (synced * 1000L / synced_ms) + "/s") +
                     " content=" + Helper.humanReadableByteCount(content) +
                     " attachments=" + Helper.humanReadableByteCount(attachments) +
                     " total=" + total + " ms";
         }
     }
+
+    private static class ContactBatch {
+        private final Map<Long, List<EntityIdentity>> identities = new HashMap<>();
+        private final Map<String, EntityContact> contacts = new LinkedHashMap<>();
+
+        void flush(Context context) {
+            if (contacts.size() == 0)
+                return;
+
+            long start = new Date().getTime();
+            List<EntityContact> inserted = new ArrayList<>();
+            List<EntityContact> updated = new ArrayList<>();
+
+            DB db = DB.getInstance(context);
+            try {
+                db.beginTransaction();
+
+                for (EntityContact contact : contacts.values()) {
+                    int count = db.contact().updateContactStats(
+                            contact.account, contact.type, contact.email,
+                            contact.name, contact.avatar,
+                            contact.times_contacted, contact.first_contacted, contact.last_contacted);
+                    if (count == 0) {
+                        contact.id = db.contact().insertContact(contact);
+                        inserted.add(contact);
+                    } else
+                        updated.add(contact);
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            for (EntityContact contact : inserted)
+                ContactIndex.update(contact);
+            // The batched statistics are applied to the indexed contacts like the update query does
+            for (EntityContact contact : updated)
+                ContactIndex.updateStats(contact);
+
+            Log.i("Contacts updated=" + updated.size() +
+                    " inserted=" + inserted.size() +
+                    " elapsed=" + (new Date().getTime() - start) + " ms");
+
+            contacts.clear();
+        }
+    }
+
 }
@@ -64,7 +64,7 @@ import static eu.faircode.email.ServiceAuthenticator.AUTH_TYPE_PASSWORD;
 // https://developer.android.com/topic/libraries/architecture/room.html
 
 @Database(
-        version = 183,
+        version = 186,
         entities = {
                 EntityIdentity.class,
                 EntityAccount.class,
@@ -1795,6 +1795,36 @@ public abstract class DB extends RoomDatabase {
                         Log.i("DB migration from version " + startVersion + " to " + endVersion);
                         db.execSQL("ALTER TABLE `message` ADD COLUMN `auto_classified` INTEGER NOT NULL DEFAULT 0");
                     }
+                })
+                .addMigrations(new Migration(183, 184) {
+                    @Override
+                    public void migrate(@NonNull SupportSQLiteDatabase db) {
+                        Log.i("DB migration from version " + startVersion + " to " + endVersion);
+                        db.execSQL("DROP INDEX IF EXISTS `index_message_folder`");
+                        db.execSQL("DROP INDEX IF EXISTS `index_message_ui_seen`");
+                        db.execSQL("DROP INDEX IF EXISTS `index_message_ui_flagged`");
+                        db.execSQL("DROP INDEX IF EXISTS `index_message_ui_hide`");
+                        db.execSQL("DROP INDEX IF EXISTS `index_message_ui_ignored`");
+                        db.execSQL("DROP INDEX IF EXISTS `index_message_ui_browsed`");
+                        db.execSQL("CREATE INDEX IF NOT EXISTS `index_message_folder_ui_hide_ui_seen_ui_flagged`" +
+                                " ON `message` (`folder`, `ui_hide`, `ui_seen`, `ui_flagged`)");
+                    }
+                })
+                .addMigrations(new Migration(184, 185) {
+                    @Override
+                    public void migrate(@NonNull SupportSQLiteDatabase db) {
+                        Log.i("DB migration from version " + startVersion + " to " + endVersion);
+                        db.execSQL("ALTER TABLE `attachment` ADD COLUMN `hash` TEXT");
+                        db.execSQL("CREATE INDEX IF NOT EXISTS `index_attachment_hash` ON `attachment` (`hash`)");
+                        // Existing attachment files are stored by WorkerCleanup
+                    }
+                })
+                .addMigrations(new Migration(185, 186) {
+                    @Override
+                    public void migrate(@NonNull SupportSQLiteDatabase db) {
+                        Log.i("DB migration from version " + startVersion + " to " + endVersion);
+                        db.execSQL("CREATE INDEX IF NOT EXISTS `index_message_notifying` ON `message` (`notifying`)");
+                    }
                 });
     }
 
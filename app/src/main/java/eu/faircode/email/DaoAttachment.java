@@ -62,6 +62,16 @@ public interface DaoAttachment {
             " WHERE available")
     List<Long> getAttachmentAvailable();
 
+    @Query("SELECT id FROM attachment" +
+            " WHERE available" +
+            " AND hash IS NULL")
+    List<Long> getAttachmentUnhashed();
+
+    @Query("SELECT DISTINCT hash FROM attachment" +
+            " WHERE available" +
+            " AND hash IS NOT NULL")
+    List<String> getAttachmentHashes();
+
     @Query("UPDATE attachment" +
             " SET message = :message" +
             " WHERE id = :id" +
@@ -75,11 +85,18 @@ public interface DaoAttachment {
     void setProgress(long id, Integer progress);
 
     @Query("UPDATE attachment" +
-            " SET size = :size, error = NULL, progress = NULL, available = 1" +
+            " SET size = :size, error = NULL, progress = NULL, available = 1, hash = NULL" +
             " WHERE id = :id" +
-            " AND (NOT (size IS :size) OR error IS NOT NULL OR progress IS NOT NULL OR NOT (available IS 1))")
+            " AND (NOT (size IS :size) OR error IS NOT NULL OR progress IS NOT NULL OR NOT (available IS 1)" +
+            "  OR hash IS NOT NULL)")
     void setDownloaded(long id, Long size);
 
+    @Query("UPDATE attachment" +
+            " SET hash = :hash" +
+            " WHERE id = :id" +
+            " AND NOT (hash IS :hash)")
+    void setHash(long id, String hash);
+
     @Query("UPDATE attachment" +
             " SET size = NULL, progress = NULL, available = :available" +
             " WHERE id = :id" +
@@ -35,6 +35,10 @@ public interface DaoContact {
             " WHERE account = :account")
     List<EntityContact> getContacts(long account);
 
+    @Query("SELECT * FROM contact" +
+            " WHERE state <> " + EntityContact.STATE_IGNORE)
+    List<EntityContact> getContacts();
+
     @Query("SELECT contact.*, account.name AS accountName" +
             " FROM contact" +
             " JOIN account ON account.id = contact.account" +
@@ -72,6 +76,19 @@ public interface DaoContact {
     @Update
     int updateContact(EntityContact contact);
 
+    // The unique index is binary, so it narrows the case insensitive match by account and type only
+    @Query("UPDATE contact" +
+            " SET name = IFNULL(name, :name)" +
+            ", avatar = :avatar" +
+            ", times_contacted = times_contacted + :times" +
+            ", first_contacted = MIN(IFNULL(first_contacted, :first), :first)" +
+            ", last_contacted = MAX(IFNULL(last_contacted, :last), :last)" +
+            " WHERE account = :account" +
+            " AND type = :type" +
+            " AND email = :email COLLATE NOCASE")
+    int updateContactStats(long account, int type, String email, String name, String avatar,
+                           int times, long first, long last);
+
     @Query("DELETE FROM contact WHERE id = :id")
     int deleteContact(long id);
 
@@ -41,6 +41,9 @@ public interface DaoLog {
     @Insert
     long insertLog(EntityLog log);
 
+    @Insert
+    void insertLogs(List<EntityLog> logs);
+
     @Query("DELETE FROM log" +
             " WHERE time < :before")
     int deleteLogs(long before);
@@ -347,6 +347,14 @@ public interface DaoMessage {
             " ORDER BY message.received DESC")
     List<Long> getMessageWithContent();
 
+    @Query("SELECT message.id" +
+            " FROM message" +
+            " JOIN folder ON folder.id = message.folder" +
+            " WHERE message.content" +
+            " AND NOT " + is_drafts +
+            " ORDER BY message.received DESC")
+    List<Long> getMessageWithContentNoDrafts();
+
     @Query("SELECT message.id" +
             " FROM message" +
             " JOIN account ON account.id = message.account" +
@@ -383,21 +391,53 @@ public interface DaoMessage {
             " AND msgid = :msgid")
     List<EntityMessage> getMessagesByMsgId(long account, String msgid);
 
-    @Query("SELECT * FROM message" +
+    @Query("SELECT msgid, thread FROM message" +
+            " WHERE account = :account" +
+            " AND msgid IN (:msgids)")
+    List<TupleThreadRef> getThreadRefs(long account, List<String> msgids);
+
+    @Query("SELECT DISTINCT thread FROM message" +
             " WHERE account = :account" +
-            " AND inreplyto = :inreplyto")
-    List<EntityMessage> getMessagesByInReplyTo(long account, String inreplyto);
+            " AND inreplyto = :inreplyto" +
+            " AND thread IS NOT NULL")
+    List<String> getThreadsByInReplyTo(long account, String inreplyto);
 
     @Query("SELECT * FROM message" +
             " WHERE account = :account" +
             " AND (id = :id OR msgid = :msgid)")
     List<EntityMessage> getMessagesBySimilarity(long account, long id, String msgid);
 
+    @Query("SELECT DISTINCT similar.*" +
+            " FROM message AS selected" +
+            " JOIN message AS threaded ON threaded.account = selected.account" +
+            "  AND threaded.thread = selected.thread" +
+            "  AND (:threading OR threaded.id = selected.id)" +
+            "  AND (NOT :folder OR threaded.folder = selected.folder)" +
+            " LEFT JOIN account_view AS account ON account.id = threaded.account" +
+            " JOIN message AS similar ON similar.account = threaded.account" +
+            "  AND (similar.id = threaded.id OR similar.msgid = threaded.msgid)" +
+            " WHERE selected.id IN (:ids)" +
+            " AND (NOT threaded.uid IS NULL OR account.pop <> " + EntityAccount.TYPE_IMAP + ")" +
+            " AND NOT threaded.ui_hide" +
+            " AND (:seen IS NULL OR NOT (threaded.ui_seen IS :seen))" +
+            " AND (:flagged IS NULL OR NOT (threaded.ui_flagged IS :flagged) OR NOT (threaded.color IS :color))")
+    List<EntityMessage> getMessagesForBulk(List<Long> ids, boolean threading, boolean folder,
+                                           Boolean seen, Boolean flagged, Integer color);
+
     @Query("SELECT * FROM message" +
             " WHERE account = :account" +
             " AND hash = :hash")
     List<EntityMessage> getMessagesByHash(long account, String hash);
 
+    // Copies of a message in other folders are adjacent in this order
+    @Query("SELECT * FROM message" +
+            " WHERE content" +
+            " AND msgid >= :msgid" +
+            " AND (msgid > :msgid OR account > :account OR (account = :account AND id > :id))" +
+            " ORDER BY msgid, account, id" +
+            " LIMIT :count")
+    List<EntityMessage> getBackupMessages(String msgid, long account, long id, int count);
+
     @Query("SELECT COUNT(*) FROM message" +
             " WHERE folder = :folder" +
             " AND msgid = :msgid")
@@ -472,12 +512,38 @@ public interface DaoMessage {
             " JOIN account_view AS account ON account.id = message.account" +
             " LEFT JOIN identity_view AS identity ON identity.id = message.identity" +
             " JOIN folder_view AS folder ON folder.id = message.folder" +
+            " WHERE message.id IN (:ids)" +
+            " ORDER BY message.received DESC")
+    List<TupleMessageEx> getUnseenNotify(List<Long> ids);
+
+    String unseen_notify = "SELECT message.id, message.account, message.folder" +
+            ", account.notify AS accountNotify, folder.unified AS folderUnified" +
+            ", message.notifying, message.content" +
+            ", message.ui_seen, message.ui_ignored, message.ui_hide" +
+            ", message.received, message.`from`";
+
+    // Room runs this query in full on every change of a message, so both parts need to be index lookups:
+    // visible unseen messages by the folder index of the notifying folders (CROSS JOIN keeps folder first)
+    // and the other messages being notified about by the notifying index
+    @Query(unseen_notify +
+            " FROM folder_view AS folder" +
+            " CROSS JOIN message ON message.folder = folder.id" +
+            " JOIN account_view AS account ON account.id = message.account" +
             " WHERE account.`synchronize`" +
             " AND folder.notify" +
             " AND (account.created IS NULL OR message.received > account.created OR message.sent > account.created)" +
-            " AND (notifying <> 0 OR NOT (message.ui_seen OR message.ui_hide))" +
-            " ORDER BY message.received DESC")
-    LiveData<List<TupleMessageEx>> liveUnseenNotify();
+            " AND message.ui_hide = 0 AND message.ui_seen = 0" +
+            " UNION ALL " + unseen_notify +
+            " FROM message" +
+            " JOIN account_view AS account ON account.id = message.account" +
+            " JOIN folder_view AS folder ON folder.id = message.folder" +
+            " WHERE account.`synchronize`" +
+            " AND folder.notify" +
+            " AND (account.created IS NULL OR message.received > account.created OR message.sent > account.created)" +
+            " AND message.notifying IN (-1, 1)" +
+            " AND NOT (message.ui_hide = 0 AND message.ui_seen = 0)" +
+            " ORDER BY received DESC")
+    LiveData<List<TupleMessageNotify>> liveUnseenNotify();
 
     @Transaction
     @Query("SELECT account.id AS account, COUNT(message.id) AS unseen, SUM(ABS(notifying)) AS notifying" +
@@ -502,17 +568,6 @@ public interface DaoMessage {
             " AND NOT (message.ui_seen OR message.ui_hide)")
     TupleMessageStats getWidgetUnseen(Long account);
 
-    @Transaction
-    @Query("SELECT folder, COUNT(*) AS total" +
-            ", SUM(ui_seen) AS seen" +
-            ", SUM(ui_flagged) AS flagged" +
-            " FROM message" +
-            " WHERE NOT ui_hide" +
-            " AND message.ui_snoozed IS NULL" +
-            " GROUP BY folder" +
-            " ORDER BY folder")
-    LiveData<List<TupleMessageWidgetCount>> liveWidgetUnified();
-
     @Query("SELECT message.*" +
             ", account.name AS accountName, COALESCE(identity.color, folder.color, account.color) AS accountColor" +
             ", SUM(1 - message.ui_seen) AS unseen" +
@@ -604,6 +659,9 @@ public interface DaoMessage {
     @Query("UPDATE message SET importance = :importance WHERE id = :id AND NOT (importance IS :importance)")
     int setMessageImportance(long id, Integer importance);
 
+    @Query("UPDATE message SET importance = :importance WHERE id IN (:ids) AND NOT (importance IS :importance)")
+    int setMessagesImportance(List<Long> ids, Integer importance);
+
     @Query("UPDATE message SET receipt_request = :receipt_request WHERE id = :id AND NOT (receipt_request IS :receipt_request)")
     int setMessageReceiptRequest(long id, Boolean receipt_request);
 
@@ -637,12 +695,24 @@ public interface DaoMessage {
     @Query("UPDATE message SET ui_seen = :ui_seen WHERE id = :id AND NOT (ui_seen IS :ui_seen)")
     int setMessageUiSeen(long id, boolean ui_seen);
 
+    @Query("UPDATE message" +
+            " SET ui_seen = :ui_seen, ui_ignored = :ui_ignored" +
+            " WHERE id IN (:ids)" +
+            " AND (NOT (ui_seen IS :ui_seen) OR NOT (ui_ignored IS :ui_ignored))")
+    int setMessagesUiSeen(List<Long> ids, boolean ui_seen, boolean ui_ignored);
+
     @Query("UPDATE message" +
             " SET ui_flagged = :ui_flagged, color = :color" +
             " WHERE id = :id" +
             " AND (NOT (ui_flagged IS :ui_flagged) OR NOT (color IS :color))")
     int setMessageUiFlagged(long id, boolean ui_flagged, Integer color);
 
+    @Query("UPDATE message" +
+            " SET ui_flagged = :ui_flagged, color = :color" +
+            " WHERE id IN (:ids)" +
+            " AND (NOT (ui_flagged IS :ui_flagged) OR NOT (color IS :color))")
+    int setMessagesUiFlagged(List<Long> ids, boolean ui_flagged, Integer color);
+
     @Query("UPDATE message SET ui_answered = :ui_answered WHERE id = :id AND NOT (ui_answered IS :ui_answered)")
     int setMessageUiAnswered(long id, boolean ui_answered);
 
@@ -768,6 +838,11 @@ public interface DaoMessage {
             " AND uid = :uid")
     int deleteMessage(long folder, long uid);
 
+    @Query("DELETE FROM message" +
+            " WHERE folder = :folder" +
+            " AND uid IN (:uids)")
+    int deleteMessages(long folder, List<Long> uids);
+
     @Query("DELETE FROM message" +
             " WHERE folder = :folder" +
             " AND NOT uid IS NULL")
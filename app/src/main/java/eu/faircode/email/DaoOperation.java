@@ -145,6 +145,9 @@ public interface DaoOperation {
     @Insert
     long insertOperation(EntityOperation operation);
 
+    @Insert
+    List<Long> insertOperations(List<EntityOperation> operations);
+
     @Query("DELETE FROM operation WHERE id = :id")
     int deleteOperation(long id);
 
@@ -26,6 +26,7 @@ import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkInfo;
 import android.os.Build;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 
@@ -42,8 +43,14 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -55,11 +62,20 @@ public class DnsHelper {
     private static final String DEFAULT_DNS = "84.200.69.80";
     private static final int CHECK_TIMEOUT = 5; // seconds
     private static final int LOOKUP_TIMEOUT = 15; // seconds
+    private static final long MAX_TTL = 3600L; // seconds
+    private static final long NEGATIVE_TTL = 300L; // seconds
 
-    static void checkMx(Context context, Address[] addresses) throws UnknownHostException {
+    private static final Map<String, CacheEntry> cache = new HashMap<>();
+    private static final Map<String, Object> pending = new HashMap<>();
+
+    private static final ExecutorService executor =
+            Helper.getBackgroundExecutor(0, "dns");
+
+    static void checkMx(final Context context, Address[] addresses) throws UnknownHostException {
         if (addresses == null)
             return;
 
+        List<String> domains = new ArrayList<>();
         for (Address address : addresses) {
             String email = ((InternetAddress) address).getAddress();
             if (email == null)
@@ -69,28 +85,33 @@ public class DnsHelper {
             if (d < 0)
                 continue;
 
-            String domain = email.substring(d + 1);
+            String domain = email.substring(d + 1).toLowerCase(Locale.ROOT);
+            if (!domains.contains(domain))
+                domains.add(domain);
+        }
+
+        // Check all domains at the same time
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (final String domain : domains)
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    CacheEntry entry = query(context, domain, Type.MX, CHECK_TIMEOUT);
+                    Log.i("Check name=" + domain + " found=" + (entry.records != null));
+                    return (entry.records != null);
+                }
+            }));
 
+        for (int i = 0; i < domains.size(); i++) {
             boolean found = true;
             try {
-                SimpleResolver resolver = new SimpleResolver(getDnsServer(context));
-                resolver.setTimeout(CHECK_TIMEOUT);
-                Lookup lookup = new Lookup(domain, Type.MX);
-                lookup.setResolver(resolver);
-                lookup.run();
-                Log.i("Check name=" + domain + " @" + resolver.getAddress() + " result=" + lookup.getResult());
-
-                if (lookup.getResult() == Lookup.HOST_NOT_FOUND ||
-                        lookup.getResult() == Lookup.TYPE_NOT_FOUND)
-                    found = false;
-                else if (lookup.getResult() != Lookup.SUCCESSFUL)
-                    throw new UnknownHostException("DNS error=" + lookup.getErrorString());
+                found = futures.get(i).get();
             } catch (Throwable ex) {
                 Log.e(ex);
             }
 
             if (!found)
-                throw new UnknownHostException(context.getString(R.string.title_no_server, domain));
+                throw new UnknownHostException(context.getString(R.string.title_no_server, domains.get(i)));
         }
     }
 
@@ -121,105 +142,23 @@ public class DnsHelper {
         }
 
         try {
-            SimpleResolver resolver = new SimpleResolver(getDnsServer(context)) {
-                private IOException ex;
-                private Message result;
-
-                @Override
-                public Message send(Message query) throws IOException {
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)
-                        return super.send(query);
-                    else {
-                        Log.i("Using Android DNS resolver");
-                        Semaphore sem = new Semaphore(0);
-                        DnsResolver resolver = DnsResolver.getInstance();
-                        //OPTRecord optRecord = new OPTRecord(4096, 0, 0, Flags.DO, null);
-                        //query.addRecord(optRecord, Section.ADDITIONAL);
-                        //query.getHeader().setFlag(Flags.AD);
-                        Log.i("DNS query=" + query.toString());
-                        resolver.rawQuery(
-                                null,
-                                query.toWire(),
-                                DnsResolver.FLAG_EMPTY,
-                                new Executor() {
-                                    @Override
-                                    public void execute(Runnable command) {
-                                        command.run();
-                                    }
-                                },
-                                null,
-                                new DnsResolver.Callback<byte[]>() {
-                                    @Override
-                                    public void onAnswer(@NonNull byte[] answer, int rcode) {
-                                        try {
-                                            if (rcode == 0)
-                                                result = new Message(answer);
-                                            else
-                                                ex = new IOException("rcode=" + rcode);
-                                        } catch (Throwable e) {
-                                            ex = new IOException(e.getMessage());
-                                        } finally {
-                                            sem.release();
-                                        }
-                                    }
-
-                                    @Override
-                                    public void onError(@NonNull DnsResolver.DnsException e) {
-                                        try {
-                                            Log.w(e);
-                                            ex = new IOException(e.getMessage());
-                                        } finally {
-                                            sem.release();
-                                        }
-                                    }
-                                });
-                        try {
-                            if (!sem.tryAcquire(LOOKUP_TIMEOUT, TimeUnit.SECONDS))
-                                ex = new IOException("timeout");
-                        } catch (InterruptedException e) {
-                            ex = new IOException("interrupted");
-                        }
-
-                        if (ex == null) {
-                            //ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-                            //Network active = (cm == null ? null : cm.getActiveNetwork());
-                            //LinkProperties props = (active == null ? null : cm.getLinkProperties(active));
-                            //Log.i("DNS private=" + (props == null ? null : props.isPrivateDnsActive()));
-                            Log.i("DNS answer=" + result.toString() + " flags=" + result.getHeader().printFlags());
-                            return result;
-                        } else {
-                            Log.w(ex);
-                            throw ex;
-                        }
-                    }
-                }
-            };
-            resolver.setTimeout(LOOKUP_TIMEOUT);
-            Lookup lookup = new Lookup(name, rtype);
-            lookup.setResolver(resolver);
-            Log.i("Lookup name=" + name + " @" + resolver.getAddress() + " type=" + rtype);
-            Record[] records = lookup.run();
-
-            if (lookup.getResult() == Lookup.HOST_NOT_FOUND ||
-                    lookup.getResult() == Lookup.TYPE_NOT_FOUND)
+            CacheEntry entry = query(context, name, rtype, LOOKUP_TIMEOUT);
+            if (entry.records == null)
                 throw new UnknownHostException(name);
-            else if (lookup.getResult() != Lookup.SUCCESSFUL)
-                Log.e("DNS error=" + lookup.getErrorString());
 
             List<DnsRecord> result = new ArrayList<>();
 
-            if (records != null)
-                for (Record record : records) {
-                    Log.i("Found record=" + record);
-                    if (record instanceof MXRecord) {
-                        MXRecord mx = (MXRecord) record;
-                        result.add(new DnsRecord(mx.getTarget().toString(true)));
-                    } else if (record instanceof SRVRecord) {
-                        SRVRecord srv = (SRVRecord) record;
-                        result.add(new DnsRecord(srv.getTarget().toString(true), srv.getPort()));
-                    } else
-                        throw new IllegalArgumentException(record.getClass().getName());
-                }
+            for (Record record : entry.records) {
+                Log.i("Found record=" + record);
+                if (record instanceof MXRecord) {
+                    MXRecord mx = (MXRecord) record;
+                    result.add(new DnsRecord(mx.getTarget().toString(true)));
+                } else if (record instanceof SRVRecord) {
+                    SRVRecord srv = (SRVRecord) record;
+                    result.add(new DnsRecord(srv.getTarget().toString(true), srv.getPort()));
+                } else
+                    throw new IllegalArgumentException(record.getClass().getName());
+            }
 
             return result.toArray(new DnsRecord[0]);
         } catch (TextParseException ex) {
@@ -227,6 +166,160 @@ public class DnsHelper {
         }
     }
 
+    @NonNull
+    private static CacheEntry query(Context context, String name, int rtype, int timeout)
+            throws TextParseException, UnknownHostException {
+        String key = rtype + ":" + name.toLowerCase(Locale.ROOT);
+
+        // Identical queries wait for the first one and use its cached result
+        Object lock;
+        synchronized (pending) {
+            lock = pending.get(key);
+            if (lock == null) {
+                lock = new Object();
+                pending.put(key, lock);
+            }
+        }
+
+        try {
+            synchronized (lock) {
+                return resolve(context, key, name, rtype, timeout);
+            }
+        } finally {
+            // Later queries are answered from the cache
+            synchronized (pending) {
+                if (pending.get(key) == lock)
+                    pending.remove(key);
+            }
+        }
+    }
+
+    @NonNull
+    private static CacheEntry resolve(Context context, String key, String name, int rtype, int timeout)
+            throws TextParseException, UnknownHostException {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (cache) {
+            CacheEntry entry = cache.get(key);
+            if (entry != null && entry.expires > now) {
+                Log.i("DNS cached name=" + name + " type=" + rtype +
+                        " found=" + (entry.records != null) +
+                        " ttl=" + (entry.expires - now) / 1000 + " s");
+                return entry;
+            }
+        }
+
+        SimpleResolver resolver = getResolver(context, timeout);
+        Lookup lookup = new Lookup(name, rtype);
+        lookup.setResolver(resolver);
+        Log.i("Lookup name=" + name + " @" + resolver.getAddress() + " type=" + rtype);
+        Record[] records = lookup.run();
+
+        CacheEntry entry = new CacheEntry();
+        if (lookup.getResult() == Lookup.HOST_NOT_FOUND ||
+                lookup.getResult() == Lookup.TYPE_NOT_FOUND) {
+            entry.records = null;
+            entry.expires = now + NEGATIVE_TTL * 1000L;
+        } else if (lookup.getResult() == Lookup.SUCCESSFUL) {
+            entry.records = (records == null ? new Record[0] : records);
+            long ttl = MAX_TTL;
+            for (Record record : entry.records)
+                ttl = Math.min(ttl, record.getTTL());
+            entry.expires = now + ttl * 1000L;
+        } else {
+            // Errors are not cached
+            Log.e("DNS error=" + lookup.getErrorString());
+            entry.records = (records == null ? new Record[0] : records);
+            return entry;
+        }
+
+        synchronized (cache) {
+            for (String k : new ArrayList<>(cache.keySet()))
+                if (cache.get(k).expires <= now)
+                    cache.remove(k);
+            cache.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    private static SimpleResolver getResolver(Context context, final int timeout) throws UnknownHostException {
+        SimpleResolver resolver = new SimpleResolver(getDnsServer(context)) {
+            private IOException ex;
+            private Message result;
+
+            @Override
+            public Message send(Message query) throws IOException {
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)
+                    return super.send(query);
+                else {
+                    Log.i("Using Android DNS resolver");
+                    Semaphore sem = new Semaphore(0);
+                    DnsResolver resolver = DnsResolver.getInstance();
+                    //OPTRecord optRecord = new OPTRecord(4096, 0, 0, Flags.DO, null);
+                    //query.addRecord(optRecord, Section.ADDITIONAL);
+                    //query.getHeader().setFlag(Flags.AD);
+                    Log.i("DNS query=" + query.toString());
+                    resolver.rawQuery(
+                            null,
+                            query.toWire(),
+                            DnsResolver.FLAG_EMPTY,
+                            new Executor() {
+                                @Override
+                                public void execute(Runnable command) {
+                                    command.run();
+                                }
+                            },
+                            null,
+                            new DnsResolver.Callback<byte[]>() {
+                                @Override
+                                public void onAnswer(@NonNull byte[] answer, int rcode) {
+                                    try {
+                                        if (rcode == 0)
+                                            result = new Message(answer);
+                                        else
+                                            ex = new IOException("rcode=" + rcode);
+                                    } catch (Throwable e) {
+                                        ex = new IOException(e.getMessage());
+                                    } finally {
+                                        sem.release();
+                                    }
+                                }
+
+                                @Override
+                                public void onError(@NonNull DnsResolver.DnsException e) {
+                                    try {
+                                        Log.w(e);
+                                        ex = new IOException(e.getMessage());
+                                    } finally {
+                                        sem.release();
+                                    }
+                                }
+                            });
+                    try {
+                        if (!sem.tryAcquire(timeout, TimeUnit.SECONDS))
+                            ex = new IOException("timeout");
+                    } catch (InterruptedException e) {
+                        ex = new IOException("interrupted");
+                    }
+
+                    if (ex == null) {
+                        //ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+                        //Network active = (cm == null ? null : cm.getActiveNetwork());
+                        //LinkProperties props = (active == null ? null : cm.getLinkProperties(active));
+                        //Log.i("DNS private=" + (props == null ? null : props.isPrivateDnsActive()));
+                        Log.i("DNS answer=" + result.toString() + " flags=" + result.getHeader().printFlags());
+                        return result;
+                    } else {
+                        Log.w(ex);
+                        throw ex;
+                    }
+                }
+            }
+        };
+        resolver.setTimeout(timeout);
+        return resolver;
+    }
+
     static String getParentDomain(String host) {
         if (host != null) {
             String[] h = host.split("\\.");
@@ -270,6 +363,11 @@ public class DnsHelper {
             return dns.get(0).getHostAddress();
     }
 
+    private static class CacheEntry {
+        Record[] records; // null if not found
+        long expires;
+    }
+
     static class DnsRecord {
         String name;
         Integer port;
@@ -30,6 +30,7 @@ import androidx.annotation.NonNull;
 import androidx.preference.PreferenceManager;
 
 import com.sun.mail.gimap.GmailSSLProvider;
+import com.sun.mail.iap.CommandTrace;
 import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.imap.IMAPStore;
 import com.sun.mail.smtp.SMTPTransport;
@@ -138,6 +139,11 @@ public class EmailService implements AutoCloseable {
 
     private static final int APPEND_BUFFER_SIZE = 4 * 1024 * 1024; // bytes
 
+    private static final int COMMAND_TRACE_SIZE = 100; // commands per connection
+    private static final int COMMAND_TRACE_CONNECTIONS = 5; // per account
+
+    private static final Map<Long, List<CommandTrace>> commandTraces = new HashMap<>();
+
     // https://developer.android.com/reference/javax/net/ssl/SSLSocket.html#protocols
     private static final List<String> SSL_PROTOCOL_BLACKLIST = Collections.unmodifiableList(Arrays.asList(
             "SSLv2", "SSLv3", "TLSv1", "TLSv1.1"
@@ -225,6 +231,10 @@ public class EmailService implements AutoCloseable {
             properties.put("mail.pop3.starttls.enable", Boolean.toString(starttls));
             properties.put("mail.pop3.starttls.required", Boolean.toString(starttls && !insecure));
 
+            // Stream retrieved messages to a temporary file instead of into memory
+            properties.put("mail." + protocol + ".filecache.enable", "true");
+            properties.put("mail." + protocol + ".filecache.dir", context.getCacheDir().getAbsolutePath());
+
         } else if ("imap".equals(protocol) || "imaps".equals(protocol) || "gimaps".equals(protocol)) {
             // https://javaee.github.io/javamail/docs/api/com/sun/mail/imap/package-summary.html#properties
             properties.put("mail.imaps.starttls.enable", "false");
@@ -264,6 +274,10 @@ public class EmailService implements AutoCloseable {
             throw new NoSuchProviderException(protocol);
     }
 
+    void setFetchSize(int size) {
+        properties.put("mail." + protocol + ".fetchsize", Integer.toString(size));
+    }
+
     void setPartialFetch(boolean enabled) {
         properties.put("mail." + protocol + ".partialfetch", Boolean.toString(enabled));
     }
@@ -295,6 +309,25 @@ public class EmailService implements AutoCloseable {
     }
 
     public void connect(EntityAccount account) throws MessagingException {
+        if (account.protocol == EntityAccount.TYPE_IMAP) {
+            properties.put("mail." + protocol + ".commandtrace.size", Integer.toString(COMMAND_TRACE_SIZE));
+            properties.put("mail." + protocol + ".commandtrace", new CommandTrace.Registry() {
+                @Override
+                public void register(CommandTrace trace) {
+                    synchronized (commandTraces) {
+                        List<CommandTrace> traces = commandTraces.get(account.id);
+                        if (traces == null) {
+                            traces = new ArrayList<>();
+                            commandTraces.put(account.id, traces);
+                        }
+                        traces.add(trace);
+                        while (traces.size() > COMMAND_TRACE_CONNECTIONS)
+                            traces.remove(0);
+                    }
+                }
+            });
+        }
+
         connect(
                 account.host, account.port,
                 account.auth_type, account.provider,
@@ -634,6 +667,13 @@ public class EmailService implements AutoCloseable {
             throw new NoSuchProviderException(protocol);
     }
 
+    static List<CommandTrace> getCommandTraces(long account) {
+        synchronized (commandTraces) {
+            List<CommandTrace> traces = commandTraces.get(account);
+            return (traces == null ? new ArrayList<>() : new ArrayList<>(traces));
+        }
+    }
+
     static String getDefaultEhlo() {
         if (BuildConfig.APPLICATION_ID.startsWith("eu.faircode.email"))
             return "dummy.faircode.eu";
@@ -46,7 +46,8 @@ import static androidx.room.ForeignKey.CASCADE;
         indices = {
                 @Index(value = {"message"}),
                 @Index(value = {"message", "sequence", "subsequence"}, unique = true),
-                @Index(value = {"message", "cid"})
+                @Index(value = {"message", "cid"}),
+                @Index(value = {"hash"})
         }
 )
 public class EntityAttachment {
@@ -79,6 +80,7 @@ public class EntityAttachment {
     @NonNull
     public Boolean available = false;
     public String error;
+    public String hash; // SHA-256 of stored content
 
     // Gmail sends inline images as attachments with a name and cid
 
@@ -120,6 +122,7 @@ public class EntityAttachment {
         List<EntityAttachment> attachments = db.attachment().getAttachments(oldid);
         for (EntityAttachment attachment : attachments) {
             File source = attachment.getFile(context);
+            AttachmentStore.store(context, attachment);
 
             attachment.id = null;
             attachment.message = newid;
@@ -129,7 +132,9 @@ public class EntityAttachment {
             if (attachment.available) {
                 File target = attachment.getFile(context);
                 try {
-                    Helper.copy(source, target);
+                    // Link to the same content instead of copying
+                    if (!AttachmentStore.copy(context, source, target))
+                        db.attachment().setHash(attachment.id, null);
                 } catch (IOException ex) {
                     Log.e(ex);
                     db.attachment().setError(attachment.id, Log.formatThrowable(ex, false));
@@ -119,19 +119,25 @@ public class EntityContact implements Serializable {
     public boolean equals(@Nullable Object obj) {
         if (obj instanceof EntityContact) {
             EntityContact other = (EntityContact) obj;
-            return (this.account == other.account &&
+            return (Objects.equals(this.account, other.account) &&
                     this.type == other.type &&
-                    this.email.equals(other.email) &&
+                    Objects.equals(this.email, other.email) &&
                     Objects.equals(this.name, other.name) &&
                     Objects.equals(this.avatar, other.avatar) &&
-                    this.times_contacted.equals(other.times_contacted) &&
-                    this.first_contacted.equals(first_contacted) &&
-                    this.last_contacted.equals(last_contacted) &&
-                    this.state.equals(other.state));
+                    Objects.equals(this.times_contacted, other.times_contacted) &&
+                    Objects.equals(this.first_contacted, other.first_contacted) &&
+                    Objects.equals(this.last_contacted, other.last_contacted) &&
+                    Objects.equals(this.state, other.state));
         } else
             return false;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(account, type, email, name, avatar,
+                times_contacted, first_contacted, last_contacted, state);
+    }
+
     @NonNull
     @Override
     public String toString() {
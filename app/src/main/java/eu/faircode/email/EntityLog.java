@@ -26,8 +26,13 @@ import androidx.room.Entity;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @Entity(
         tableName = EntityLog.TABLE_NAME,
@@ -47,6 +52,16 @@ public class EntityLog {
     @NonNull
     public String data;
 
+    private static final Object lock = new Object();
+    private static final ArrayDeque<EntityLog> queue = new ArrayDeque<>();
+    private static boolean scheduled = false;
+    private static long dropped = 0;
+
+    private static final int LOG_QUEUE_SIZE = 1000; // entries
+    private static final int LOG_BATCH_SIZE = 100; // entries
+    private static final long LOG_BATCH_DELAY = 2000L; // milliseconds
+    private static final long LOG_FLUSH_TIMEOUT = 3000L; // milliseconds
+
     private static final ExecutorService executor =
             Helper.getBackgroundExecutor(1, "log");
 
@@ -57,16 +72,91 @@ public class EntityLog {
         entry.time = new Date().getTime();
         entry.data = data;
 
+        synchronized (lock) {
+            if (queue.size() >= LOG_QUEUE_SIZE) {
+                queue.poll();
+                dropped++;
+            }
+            queue.add(entry);
+
+            if (queue.size() >= LOG_BATCH_SIZE)
+                lock.notifyAll();
+
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+
         final DB db = DB.getInstance(context);
 
         executor.submit(new Runnable() {
             @Override
             public void run() {
-                db.log().insertLog(entry);
+                try {
+                    synchronized (lock) {
+                        if (queue.size() < LOG_BATCH_SIZE)
+                            lock.wait(LOG_BATCH_DELAY);
+                    }
+                } catch (InterruptedException ex) {
+                    Log.w(ex);
+                }
+
+                write(db);
+            }
+        });
+    }
+
+    static Future<?> flush(Context context) {
+        final DB db = DB.getInstance(context);
+
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                write(db);
             }
         });
     }
 
+    static void flushAndWait(Context context) {
+        try {
+            flush(context).get(LOG_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Throwable ex) {
+            Log.w(ex);
+        }
+    }
+
+    private static void write(DB db) {
+        List<EntityLog> entries;
+        synchronized (lock) {
+            scheduled = false;
+            if (queue.size() == 0 && dropped == 0)
+                return;
+
+            entries = new ArrayList<>(queue);
+            queue.clear();
+
+            if (dropped > 0) {
+                EntityLog entry = new EntityLog();
+                entry.time = new Date().getTime();
+                entry.data = "Log dropped=" + dropped;
+                entries.add(entry);
+                dropped = 0;
+            }
+        }
+
+        try {
+            db.beginTransaction();
+
+            db.log().insertLogs(entries);
+
+            db.setTransactionSuccessful();
+        } catch (Throwable ex) {
+            Log.e(ex);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof EntityLog) {
@@ -68,7 +68,7 @@ import static androidx.room.ForeignKey.SET_NULL;
         },
         indices = {
                 @Index(value = {"account"}),
-                @Index(value = {"folder"}),
+                @Index(value = {"folder", "ui_hide", "ui_seen", "ui_flagged"}),
                 @Index(value = {"identity"}),
                 @Index(value = {"folder", "uid"}, unique = true),
                 @Index(value = {"inreplyto"}),
@@ -77,13 +77,9 @@ import static androidx.room.ForeignKey.SET_NULL;
                 @Index(value = {"sender"}),
                 @Index(value = {"received"}),
                 @Index(value = {"subject"}),
-                @Index(value = {"ui_seen"}),
-                @Index(value = {"ui_flagged"}),
-                @Index(value = {"ui_hide"}),
                 @Index(value = {"ui_found"}),
-                @Index(value = {"ui_ignored"}),
-                @Index(value = {"ui_browsed"}),
-                @Index(value = {"ui_snoozed"})
+                @Index(value = {"ui_snoozed"}),
+                @Index(value = {"notifying"})
         }
 )
 public class EntityMessage implements Serializable {
@@ -365,6 +361,10 @@ public class EntityMessage implements Serializable {
     }
 
     String getNotificationChannelId() {
+        return getNotificationChannelId(from);
+    }
+
+    static String getNotificationChannelId(Address[] from) {
         if (from == null || from.length == 0)
             return null;
         InternetAddress sender = (InternetAddress) from[0];
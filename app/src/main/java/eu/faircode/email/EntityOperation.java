@@ -40,9 +40,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import static androidx.room.ForeignKey.CASCADE;
 
@@ -102,6 +104,7 @@ public class EntityOperation {
     static final String PURGE = "purge";
 
     private static final int MAX_FETCH = 100; // operations
+    private static final int MAX_BULK = 500; // SQLite variables
 
     static void queue(Context context, EntityMessage message, String name, Object... values) {
         DB db = DB.getInstance(context);
@@ -361,6 +364,90 @@ public class EntityOperation {
         }
     }
 
+    static int queueBulk(Context context, long[] ids, boolean threading, String name, Object... values) {
+        // Set based version of queue for selected conversations
+        DB db = DB.getInstance(context);
+
+        try {
+            JSONArray jargs = new JSONArray();
+            for (Object value : values)
+                jargs.put(value);
+
+            boolean folder;
+            boolean ignore = true;
+            Boolean seen = null;
+            Boolean flagged = null;
+            Integer color = null;
+            if (SEEN.equals(name)) {
+                seen = jargs.getBoolean(0);
+                ignore = jargs.optBoolean(1, true);
+                folder = !seen;
+            } else if (FLAG.equals(name)) {
+                flagged = jargs.getBoolean(0);
+                color = (jargs.length() > 1 && !jargs.isNull(1) ? jargs.getInt(1) : null);
+                folder = flagged;
+            } else
+                throw new IllegalArgumentException("Unsupported bulk operation=" + name);
+
+            // Threaded and similar messages
+            Set<Long> handled = new HashSet<>();
+            List<Long> targets = new ArrayList<>();
+            List<EntityOperation> ops = new ArrayList<>();
+            String args = jargs.toString();
+            long now = new Date().getTime();
+            List<Long> selected = Helper.fromLongArray(ids);
+            for (int i = 0; i < selected.size(); i += MAX_BULK) {
+                List<Long> sub = selected.subList(i, Math.min(selected.size(), i + MAX_BULK));
+                for (EntityMessage message : db.message().getMessagesForBulk(
+                        sub, threading, folder, seen, flagged, color))
+                    if (handled.add(message.id)) {
+                        targets.add(message.id);
+
+                        EntityOperation op = new EntityOperation();
+                        op.account = message.account;
+                        op.folder = message.folder;
+                        op.message = message.id;
+                        op.name = name;
+                        op.args = args;
+                        op.created = now;
+                        ops.add(op);
+                    }
+            }
+
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            boolean auto_important = prefs.getBoolean("auto_important", false);
+
+            for (int i = 0; i < targets.size(); i += MAX_BULK) {
+                List<Long> sub = targets.subList(i, Math.min(targets.size(), i + MAX_BULK));
+                if (seen != null)
+                    db.message().setMessagesUiSeen(sub, seen, ignore);
+                else {
+                    db.message().setMessagesUiFlagged(sub, flagged, flagged ? color : null);
+                    if (auto_important)
+                        db.message().setMessagesImportance(sub, flagged ? 2 : null);
+                }
+            }
+
+            db.operation().insertOperations(ops);
+
+            Log.i("Queued bulk op=" + name + " args=" + args +
+                    " selected=" + ids.length + " messages=" + ops.size());
+
+            Map<String, String> crumb = new HashMap<>();
+            crumb.put("name", name);
+            crumb.put("args", args);
+            crumb.put("selected", Integer.toString(ids.length));
+            crumb.put("messages", Integer.toString(ops.size()));
+            crumb.put("free", Integer.toString(Log.getFreeMemMb()));
+            Log.breadcrumb("queued bulk", crumb);
+
+            return ops.size();
+        } catch (JSONException ex) {
+            Log.e(ex);
+            return 0;
+        }
+    }
+
     static void queue(Context context, EntityFolder folder, String name, Object... values) {
         JSONArray jargs = new JSONArray();
         for (Object value : values)
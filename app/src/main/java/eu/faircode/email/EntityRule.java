@@ -49,7 +49,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
@@ -57,7 +56,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 import javax.mail.Address;
-import javax.mail.Header;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
@@ -238,15 +236,12 @@ public class EntityRule {
                 boolean regex = jheader.getBoolean("regex");
 
                 boolean matches = false;
-                Enumeration<Header> headers = imessage.getAllHeaders();
-                while (headers.hasMoreElements()) {
-                    Header header = headers.nextElement();
-                    String formatted = header.getName() + ": " + header.getValue();
+                List<String> headers = MessageArtifacts.get(message).getHeaders(imessage);
+                for (String formatted : headers)
                     if (matches(context, value, formatted, regex)) {
                         matches = true;
                         break;
                     }
-                }
                 if (!matches)
                     return false;
             }
@@ -610,7 +605,7 @@ public class EntityRule {
         body = msg.outerHtml();
 
         File file = reply.getFile(context);
-        Helper.writeText(file, body);
+        Helper.writeCompressed(file, body);
         db.message().setMessageContent(reply.id,
                 true,
                 HtmlHelper.getLanguage(context, body),
@@ -0,0 +1,132 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Fetch sizes per account, adapted to the measured duration of fetches
+// Sizes grow additively while fetches are fast and are halved when fetches are slow, like TCP congestion control
+
+public class FetchTuner {
+    private static final Map<String, Integer> values = new HashMap<>();
+
+    static final Tuner CHUNK = new Tuner("chunk", 200, 20, 2000, 50); // UID ranges
+    static final Tuner BATCH = new Tuner("batch", 20, 5, 200, 5); // messages
+    static final Tuner DOWNLOAD = new Tuner("download", 20, 5, 200, 5); // messages
+
+    private static final long TARGET_DURATION = 2000L; // milliseconds
+    private static final long TARGET_BLOCK_DURATION = 500L; // milliseconds
+    private static final int MIN_FETCH_SIZE = 16 * 1024; // bytes
+    private static final int MAX_FETCH_SIZE = 4 * 1024 * 1024; // bytes
+    private static final int DEFAULT_FETCH_SIZE = 1024 * 1024; // bytes
+
+    static int get(Context context, long account, Tuner tuner) {
+        return getValue(context, account, tuner.name, tuner.initial);
+    }
+
+    static void update(Context context, long account, Tuner tuner, int count, long ms) {
+        if (count <= 0)
+            return;
+
+        int size = get(context, account, tuner);
+        int next = size;
+        if (ms > TARGET_DURATION)
+            next = Math.max(tuner.min, size / 2);
+        else if (ms < TARGET_DURATION / 2 && count >= size)
+            next = Math.min(tuner.max, size + tuner.step);
+
+        if (next != size) {
+            Log.i("Fetch tuner account=" + account + " " + tuner.name +
+                    " count=" + count + " elapsed=" + ms + " ms size=" + size + ">" + next);
+            setValue(context, account, tuner.name, next);
+        }
+    }
+
+    static int getFetchSize(Context context, long account) {
+        return getValue(context, account, "fetchsize", DEFAULT_FETCH_SIZE);
+    }
+
+    static void updateThroughput(Context context, long account, long bytes, long ms) {
+        if (bytes < MIN_FETCH_SIZE || ms <= 0)
+            return;
+
+        // Blocks sized to the bytes transferred in the target duration
+        long bps = bytes * 1000L / ms;
+        int size = getFetchSize(context, account);
+        int target = (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, bps * TARGET_BLOCK_DURATION / 1000L));
+
+        // Smooth changes
+        int next = (size * 3 + target) / 4;
+        if (Math.abs(next - size) > size / 10) {
+            Log.i("Fetch tuner account=" + account + " throughput=" + Helper.humanReadableByteCount(bps) + "/s" +
+                    " fetch size=" + Helper.humanReadableByteCount(size) + ">" + Helper.humanReadableByteCount(next));
+            setValue(context, account, "fetchsize", next);
+        }
+    }
+
+    private static int getValue(Context context, long account, String name, int def) {
+        String key = getKey(account, name);
+        synchronized (values) {
+            Integer value = values.get(key);
+            if (value == null) {
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+                value = prefs.getInt(key, def);
+                values.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    private static void setValue(Context context, long account, String name, int value) {
+        String key = getKey(account, name);
+        synchronized (values) {
+            values.put(key, value);
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putInt(key, value).apply();
+    }
+
+    private static String getKey(long account, String name) {
+        return "fetch." + account + "." + name;
+    }
+
+    static class Tuner {
+        private final String name;
+        private final int initial;
+        private final int min;
+        private final int max;
+        private final int step;
+
+        Tuner(String name, int initial, int min, int max, int step) {
+            this.name = name;
+            this.initial = initial;
+            this.min = min;
+            this.max = max;
+            this.step = step;
+        }
+    }
+}
@@ -145,7 +145,6 @@ import org.jsoup.select.NodeFilter;
 import org.openintents.openpgp.OpenPgpError;
 import org.openintents.openpgp.util.OpenPgpApi;
 import org.openintents.openpgp.util.OpenPgpServiceConnection;
-import org.w3c.dom.css.CSSStyleSheet;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -892,50 +891,22 @@ public class FragmentCompose extends FragmentBase {
                     if (typed == null)
                         return result;
 
-                    String wildcard = "%" + typed + "%";
                     Map<String, EntityContact> map = new HashMap<>();
 
-                    boolean contacts = Helper.hasPermission(getContext(), Manifest.permission.READ_CONTACTS);
-                    if (contacts) {
-                        Cursor cursor = resolver.query(
-                                ContactsContract.CommonDataKinds.Email.CONTENT_URI,
-                                new String[]{
-                                        ContactsContract.Contacts.DISPLAY_NAME,
-                                        ContactsContract.CommonDataKinds.Email.DATA,
-                                        ContactsContract.Contacts.PHOTO_THUMBNAIL_URI,
-                                        ContactsContract.Contacts.STARRED
-                                },
-                                ContactsContract.CommonDataKinds.Email.DATA + " <> ''" +
-                                        " AND (" + ContactsContract.Contacts.DISPLAY_NAME + " LIKE ?" +
-                                        " OR " + ContactsContract.CommonDataKinds.Email.DATA + " LIKE ?)",
-                                new String[]{wildcard, wildcard},
-                                null);
-
-                        while (cursor != null && cursor.moveToNext()) {
-                            EntityContact item = new EntityContact();
-                            item.id = 0L;
-                            item.name = cursor.getString(0);
-                            item.email = cursor.getString(1);
-                            item.avatar = cursor.getString(2);
-                            item.times_contacted = (cursor.getInt(3) == 0 ? 0 : Integer.MAX_VALUE);
-                            item.last_contacted = 0L;
-                            EntityContact existing = map.get(item.email);
-                            if (existing == null ||
-                                    (existing.avatar == null && item.avatar != null))
-                                map.put(item.email, item);
-                        }
-                    }
-
-                    List<EntityContact> items = new ArrayList<>();
-                    if (suggest_sent)
-                        items.addAll(db.contact().searchContacts(null, EntityContact.TYPE_TO, wildcard));
-                    if (suggest_received)
-                        items.addAll(db.contact().searchContacts(null, EntityContact.TYPE_FROM, wildcard));
+                    List<EntityContact> items = ContactIndex.search(getContext(), typed.toString(),
+                            suggest_sent, suggest_received);
                     for (EntityContact item : items) {
                         EntityContact existing = map.get(item.email);
                         if (existing == null)
                             map.put(item.email, item);
                         else {
+                            // Prefer the device contact
+                            if (item.id == 0 && existing.id != 0) {
+                                map.put(item.email, item);
+                                EntityContact swap = existing;
+                                existing = item;
+                                item = swap;
+                            }
                             existing.times_contacted = Math.max(existing.times_contacted, item.times_contacted);
                             existing.last_contacted = Math.max(existing.last_contacted, item.last_contacted);
                         }
@@ -3872,11 +3843,11 @@ public class FragmentCompose extends FragmentBase {
                             Element e = d.body();
 
                             // Apply styles
-                            List<CSSStyleSheet> sheets = HtmlHelper.parseStyles(d.head().select("style"));
+                            StyleIndex styles = HtmlHelper.parseStyles(d.head().select("style"));
                             for (Element element : e.select("*")) {
                                 String tag = element.tagName();
                                 String clazz = element.attr("class");
-                                String style = HtmlHelper.processStyles(tag, clazz, null, sheets);
+                                String style = HtmlHelper.processStyles(tag, clazz, null, styles);
                                 style = HtmlHelper.mergeStyles(style, element.attr("style"));
                                 element.attr("style", style);
                             }
@@ -3921,8 +3892,8 @@ public class FragmentCompose extends FragmentBase {
                     data.draft.id = db.message().insertMessage(data.draft);
 
                     String html = document.html();
-                    Helper.writeText(data.draft.getFile(context), html);
-                    Helper.writeText(data.draft.getFile(context, data.draft.revision), html);
+                    Helper.writeCompressed(data.draft.getFile(context), html);
+                    Helper.writeCompressed(data.draft.getFile(context, data.draft.revision), html);
 
                     db.message().setMessageContent(data.draft.id,
                             true,
@@ -3998,6 +3969,7 @@ public class FragmentCompose extends FragmentBase {
                                             cid.contains(attachment.cid))) {
                                 if (attachment.available) {
                                     File source = attachment.getFile(context);
+                                    AttachmentStore.store(context, attachment);
 
                                     if (cid.contains(attachment.cid))
                                         attachment.disposition = Part.INLINE;
@@ -4007,8 +3979,10 @@ public class FragmentCompose extends FragmentBase {
                                     attachment.sequence = ++sequence;
                                     attachment.id = db.attachment().insertAttachment(attachment);
 
+                                    // Link to the same content instead of copying
                                     File target = attachment.getFile(context);
-                                    Helper.copy(source, target);
+                                    if (!AttachmentStore.copy(context, source, target))
+                                        db.attachment().setHash(attachment.id, null);
 
                                     if (resize_reply && !"forward".equals(action))
                                         resizeAttachment(context, attachment, REDUCED_IMAGE_SIZE);
@@ -4074,8 +4048,8 @@ public class FragmentCompose extends FragmentBase {
                         addSignature(context, document, data.draft, identity);
 
                         String html = document.html();
-                        Helper.writeText(file, html);
-                        Helper.writeText(data.draft.getFile(context, data.draft.revision), html);
+                        Helper.writeCompressed(file, html);
+                        Helper.writeCompressed(data.draft.getFile(context, data.draft.revision), html);
 
                         db.message().setMessageContent(data.draft.id,
                                 true,
@@ -4530,7 +4504,7 @@ public class FragmentCompose extends FragmentBase {
 
                             addSignature(context, c, draft, identity);
 
-                            Helper.writeText(draft.getFile(context, draft.revision), c.html());
+                            Helper.writeCompressed(draft.getFile(context, draft.revision), c.html());
 
                             d = JsoupEx.parse(extras.getString("html"));
                         } else {
@@ -4552,7 +4526,7 @@ public class FragmentCompose extends FragmentBase {
                         draft.revisions++;
                         draft.revision = draft.revisions;
 
-                        Helper.writeText(draft.getFile(context, draft.revision), body);
+                        Helper.writeCompressed(draft.getFile(context, draft.revision), body);
                     } else
                         body = Helper.readText(draft.getFile(context));
 
@@ -4582,7 +4556,7 @@ public class FragmentCompose extends FragmentBase {
                         dirty = true;
                     }
 
-                    Helper.writeText(draft.getFile(context), body);
+                    Helper.writeCompressed(draft.getFile(context), body);
 
                     db.message().setMessageContent(draft.id,
                             true,
@@ -4662,9 +4636,15 @@ public class FragmentCompose extends FragmentBase {
                             }
 
                             try {
-                                checkMx(ato, context);
-                                checkMx(acc, context);
-                                checkMx(abcc, context);
+                                // Check the domains of all recipients at the same time
+                                List<InternetAddress> all = new ArrayList<>();
+                                if (ato != null)
+                                    all.addAll(Arrays.asList(ato));
+                                if (acc != null)
+                                    all.addAll(Arrays.asList(acc));
+                                if (abcc != null)
+                                    all.addAll(Arrays.asList(abcc));
+                                checkMx(all.toArray(new InternetAddress[0]), context);
                             } catch (UnknownHostException ex) {
                                 args.putString("mx_error", ex.getMessage());
                             }
@@ -4828,7 +4808,7 @@ public class FragmentCompose extends FragmentBase {
                         draft.fts = false;
                         draft.ui_hide = false;
                         draft.id = db.message().insertMessage(draft);
-                        Helper.writeText(draft.getFile(context), body);
+                        Helper.writeCompressed(draft.getFile(context), body);
 
                         // Move attachments
                         for (EntityAttachment attachment : attachments)
@@ -185,6 +185,7 @@ public class FragmentContacts extends FragmentBase {
                                 protected Void onExecute(Context context, Bundle args) {
                                     DB db = DB.getInstance(context);
                                     int count = db.contact().clearContacts();
+                                    ContactIndex.invalidate();
                                     Log.i("Cleared contacts=" + count);
                                     return null;
                                 }
@@ -2881,17 +2881,7 @@ public class FragmentMessages extends FragmentBase implements SharedPreferences.
                 try {
                     db.beginTransaction();
 
-                    for (long id : ids) {
-                        EntityMessage message = db.message().getMessage(id);
-                        if (message == null)
-                            continue;
-
-                        List<EntityMessage> messages = db.message().getMessagesByThread(
-                                message.account, message.thread, threading ? null : id, seen ? null : message.folder);
-                        for (EntityMessage threaded : messages)
-                            if (threaded.ui_seen != seen)
-                                EntityOperation.queue(context, threaded, EntityOperation.SEEN, seen);
-                    }
+                    EntityOperation.queueBulk(context, ids, threading, EntityOperation.SEEN, seen);
 
                     db.setTransactionSuccessful();
                 } finally {
@@ -3017,17 +3007,7 @@ public class FragmentMessages extends FragmentBase implements SharedPreferences.
                 try {
                     db.beginTransaction();
 
-                    for (long id : ids) {
-                        EntityMessage message = db.message().getMessage(id);
-                        if (message == null)
-                            continue;
-
-                        List<EntityMessage> messages = db.message().getMessagesByThread(
-                                message.account, message.thread, threading ? null : id, flagged ? message.folder : null);
-                        for (EntityMessage threaded : messages)
-                            if (threaded.ui_flagged != flagged || !Objects.equals(threaded.color, color))
-                                EntityOperation.queue(context, threaded, EntityOperation.FLAG, flagged, color);
-                    }
+                    EntityOperation.queueBulk(context, ids, threading, EntityOperation.FLAG, flagged, color);
 
                     db.setTransactionSuccessful();
                 } finally {
@@ -5397,7 +5377,7 @@ public class FragmentMessages extends FragmentBase implements SharedPreferences.
             }
 
             File file = message.getFile(context);
-            Helper.writeText(file, null);
+            Helper.writeCompressed(file, null);
             db.message().setMessageContent(message.id, true, null, null, null, null);
             //db.message().setMessageSubject(id, subject);
             db.attachment().deleteAttachments(message.id);
@@ -6108,7 +6088,7 @@ public class FragmentMessages extends FragmentBase implements SharedPreferences.
                                         // Write decrypted body
                                         String text = Helper.readText(plain);
                                         String html = "<div x-plain=\"true\">" + HtmlHelper.formatPre(text) + "</div>";
-                                        Helper.writeText(message.getFile(context), html);
+                                        Helper.writeCompressed(message.getFile(context), html);
                                         db.message().setMessageStored(message.id, new Date().getTime());
                                         db.message().setMessageFts(message.id, false);
 
@@ -6139,7 +6119,7 @@ public class FragmentMessages extends FragmentBase implements SharedPreferences.
 
                                         // Write decrypted body
                                         String html = parts.getHtml(context);
-                                        Helper.writeText(message.getFile(context), html);
+                                        Helper.writeCompressed(message.getFile(context), html);
 
                                         // Remove existing attachments
                                         db.attachment().deleteAttachments(message.id);
@@ -6762,7 +6742,7 @@ public class FragmentMessages extends FragmentBase implements SharedPreferences.
 
                     // Write decrypted body
                     String html = parts.getHtml(context);
-                    Helper.writeText(message.getFile(context), html);
+                    Helper.writeCompressed(message.getFile(context), html);
                     Log.i("s/mime html=" + (html == null ? null : html.length()));
 
                     // Remove existing attachments
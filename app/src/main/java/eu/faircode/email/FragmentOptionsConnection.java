@@ -60,6 +60,7 @@ public class FragmentOptionsConnection extends FragmentBase implements SharedPre
     private SwitchCompat swRoaming;
     private SwitchCompat swRlah;
     private EditText etTimeout;
+    private EditText etFolderConnections;
     private SwitchCompat swPreferIp4;
     private SwitchCompat swStandaloneVpn;
     private SwitchCompat swTcpKeepAlive;
@@ -71,7 +72,7 @@ public class FragmentOptionsConnection extends FragmentBase implements SharedPre
     private TextView tvNetworkInfo;
 
     private final static String[] RESET_OPTIONS = new String[]{
-            "metered", "download", "roaming", "rlah", "timeout", "prefer_ip4", "standalone_vpn", "tcp_keep_alive", "ssl_harden"
+            "metered", "download", "roaming", "rlah", "timeout", "folder_connections", "prefer_ip4", "standalone_vpn", "tcp_keep_alive", "ssl_harden"
     };
 
     @Override
@@ -89,6 +90,7 @@ public class FragmentOptionsConnection extends FragmentBase implements SharedPre
         swRoaming = view.findViewById(R.id.swRoaming);
         swRlah = view.findViewById(R.id.swRlah);
         etTimeout = view.findViewById(R.id.etTimeout);
+        etFolderConnections = view.findViewById(R.id.etFolderConnections);
         swPreferIp4 = view.findViewById(R.id.swPreferIp4);
         swStandaloneVpn = view.findViewById(R.id.swStandaloneVpn);
         swTcpKeepAlive = view.findViewById(R.id.swTcpKeepAlive);
@@ -166,6 +168,31 @@ public class FragmentOptionsConnection extends FragmentBase implements SharedPre
             }
         });
 
+        etFolderConnections.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                // Do nothing
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                try {
+                    int connections = (s.length() > 0 ? Integer.parseInt(s.toString()) : 0);
+                    if (connections == 0)
+                        prefs.edit().remove("folder_connections").apply();
+                    else
+                        prefs.edit().putInt("folder_connections", connections).apply();
+                } catch (NumberFormatException ex) {
+                    Log.e(ex);
+                }
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Do nothing
+            }
+        });
+
         swPreferIp4.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
@@ -234,7 +261,7 @@ public class FragmentOptionsConnection extends FragmentBase implements SharedPre
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-        if ("timeout".equals(key))
+        if ("timeout".equals(key) || "folder_connections".equals(key))
             return;
 
         if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED))
@@ -313,6 +340,10 @@ public class FragmentOptionsConnection extends FragmentBase implements SharedPre
         etTimeout.setText(timeout == 0 ? null : Integer.toString(timeout));
         etTimeout.setHint(Integer.toString(EmailService.DEFAULT_CONNECT_TIMEOUT));
 
+        int folder_connections = prefs.getInt("folder_connections", 0);
+        etFolderConnections.setText(folder_connections == 0 ? null : Integer.toString(folder_connections));
+        etFolderConnections.setHint(Integer.toString(AccountScheduler.DEFAULT_CONNECTIONS));
+
         swPreferIp4.setChecked(prefs.getBoolean("prefer_ip4", true));
         swStandaloneVpn.setChecked(prefs.getBoolean("standalone_vpn", false));
         swTcpKeepAlive.setChecked(prefs.getBoolean("tcp_keep_alive", false));
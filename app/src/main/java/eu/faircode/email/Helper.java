@@ -95,13 +95,17 @@ import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 import org.openintents.openpgp.util.OpenPgpApi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
@@ -131,6 +135,8 @@ import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 import static androidx.browser.customtabs.CustomTabsService.ACTION_CUSTOM_TABS_CONNECTION;
@@ -1130,9 +1136,84 @@ public class Helper {
         return new String(os.toByteArray(), charset);
     }
 
+    static void writeCompressed(File file, String content) throws IOException {
+        // Message bodies: HTML compresses well and small files waste less space
+        if (TextUtils.isEmpty(content)) {
+            writeText(file, content);
+            return;
+        }
+
+        try (OutputStream out = new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE)) {
+            if (content != null)
+                out.write(content.getBytes());
+        }
+    }
+
+    static long compress(File file) throws IOException {
+        if (isCompressed(file))
+            return 0;
+
+        long length = file.length();
+        long modified = file.lastModified();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (InputStream in = new FileInputStream(file)) {
+            try (OutputStream out = new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE), BUFFER_SIZE)) {
+                copy(in, out);
+            }
+        }
+
+        // Don't replace content saved in the meantime
+        if (file.lastModified() != modified || file.length() != length) {
+            Log.i("Changed while compressing " + file);
+            tmp.delete();
+            return 0;
+        }
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Error replacing " + file);
+        }
+
+        return length - file.length();
+    }
+
+    static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return isCompressed(in.read(), in.read());
+        }
+    }
+
+    private static boolean isCompressed(int b1, int b2) {
+        // GZIP magic, text files never start with these bytes
+        return (b1 == 0x1f && b2 == 0x8b);
+    }
+
+    static InputStream getInputStream(File file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            is.mark(2);
+            boolean compressed = isCompressed(is.read(), is.read());
+            is.reset();
+            return (compressed ? new GZIPInputStream(is, BUFFER_SIZE) : is);
+        } catch (IOException ex) {
+            is.close();
+            throw ex;
+        }
+    }
+
+    static Reader getReader(File file) throws IOException {
+        return new InputStreamReader(getInputStream(file), StandardCharsets.UTF_8);
+    }
+
     static String readText(File file) throws IOException {
-        try (FileInputStream in = new FileInputStream(file)) {
-            return readStream(in, StandardCharsets.UTF_8.name());
+        try (Reader reader = getReader(file)) {
+            StringBuilder sb = new StringBuilder((int) Math.min(file.length(), Integer.MAX_VALUE));
+            char[] buffer = new char[BUFFER_SIZE];
+            for (int len = reader.read(buffer); len != -1; len = reader.read(buffer))
+                sb.append(buffer, 0, len);
+            return sb.toString();
         }
     }
 
@@ -54,6 +54,7 @@ import android.text.style.TypefaceSpan;
 import android.text.style.URLSpan;
 import android.text.style.UnderlineSpan;
 import android.util.Base64;
+import android.util.LruCache;
 import android.util.Patterns;
 import android.view.View;
 
@@ -66,14 +67,8 @@ import androidx.core.graphics.ColorUtils;
 import androidx.core.util.PatternsCompat;
 import androidx.preference.PreferenceManager;
 
-import com.steadystate.css.dom.CSSMediaRuleImpl;
-import com.steadystate.css.dom.CSSStyleRuleImpl;
-import com.steadystate.css.dom.MediaListImpl;
 import com.steadystate.css.parser.CSSOMParser;
 import com.steadystate.css.parser.SACParserCSS3;
-import com.steadystate.css.parser.selectors.ClassConditionImpl;
-import com.steadystate.css.parser.selectors.ConditionalSelectorImpl;
-import com.steadystate.css.parser.selectors.ElementSelectorImpl;
 
 import org.jsoup.nodes.Attribute;
 import org.jsoup.nodes.Comment;
@@ -91,11 +86,6 @@ import org.w3c.css.sac.CSSException;
 import org.w3c.css.sac.CSSParseException;
 import org.w3c.css.sac.ErrorHandler;
 import org.w3c.css.sac.InputSource;
-import org.w3c.css.sac.Selector;
-import org.w3c.dom.css.CSSRule;
-import org.w3c.dom.css.CSSRuleList;
-import org.w3c.dom.css.CSSStyleSheet;
-import org.w3c.dom.stylesheets.MediaList;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -115,7 +105,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static androidx.core.text.HtmlCompat.TO_HTML_PARAGRAPH_LINES_INDIVIDUAL;
-import static org.w3c.css.sac.Condition.SAC_CLASS_CONDITION;
 
 public class HtmlHelper {
     private static final int PREVIEW_SIZE = 500; // characters
@@ -131,6 +120,7 @@ public class HtmlHelper {
     private static final int MAX_AUTO_LINK = 250;
     private static final int MAX_FORMAT_TEXT_SIZE = 200 * 1024; // characters
     private static final int MAX_FULL_TEXT_SIZE = 1024 * 1024; // characters
+    private static final int STYLE_CACHE_SIZE = 1024 * 1024; // characters
     private static final int SMALL_IMAGE_SIZE = 5; // pixels
     private static final int TRACKING_PIXEL_SURFACE = 25; // pixels
     private static final float[] HEADING_SIZES = {1.5f, 1.4f, 1.3f, 1.2f, 1.1f, 1f};
@@ -139,6 +129,13 @@ public class HtmlHelper {
     private static final String LINE = "----------------------------------------";
     private static final HashMap<String, Integer> x11ColorMap = new HashMap<>();
 
+    private static final LruCache<String, StyleIndex.Sheet> styleCache = new LruCache<String, StyleIndex.Sheet>(STYLE_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, StyleIndex.Sheet value) {
+            return value.getSize() + 1;
+        }
+    };
+
     static {
         // https://www.w3.org/TR/css-color-3/
         x11ColorMap.put("aliceblue", 0xF0F8FF);
@@ -417,9 +414,9 @@ public class HtmlHelper {
         }
 
         // https://developer.mozilla.org/en-US/docs/Web/HTML/Element/style
-        List<CSSStyleSheet> sheets = new ArrayList<>();
+        StyleIndex styles = new StyleIndex();
         if (parse_classes)
-            sheets = parseStyles(parsed.head().select("style"));
+            styles = parseStyles(parsed.head().select("style"));
 
         Whitelist whitelist = Whitelist.relaxed()
                 .addTags("hr", "abbr", "big", "font", "dfn", "del", "s", "tt")
@@ -506,7 +503,7 @@ public class HtmlHelper {
             // Class style
             String tag = element.tagName();
             String clazz = element.className();
-            String style = processStyles(tag, clazz, null, sheets);
+            String style = processStyles(tag, clazz, null, styles);
 
             // Element style
             style = mergeStyles(style, element.attr("style"));
@@ -1153,14 +1150,26 @@ public class HtmlHelper {
         }
     }
 
-    static List<CSSStyleSheet> parseStyles(Elements styles) {
-        List<CSSStyleSheet> sheets = new ArrayList<>();
+    static StyleIndex parseStyles(Elements styles) {
+        List<StyleIndex.Sheet> sheets = new ArrayList<>();
         for (Element style : styles) {
             if (BuildConfig.DEBUG)
                 Log.i("Style=" + style.data());
             try {
-                InputSource source = new InputSource(new StringReader(style.data()));
+                String data = style.data();
                 String media = style.attr("media");
+
+                // Newsletters tend to repeat the same style sheets
+                String key = Helper.sha256(media + "\n" + data);
+                StyleIndex.Sheet cached = styleCache.get(key);
+                if (cached != null) {
+                    sheets.add(cached);
+                    Log.i("Style parse=cached" +
+                            " hits=" + styleCache.hitCount() + " misses=" + styleCache.missCount());
+                    continue;
+                }
+
+                InputSource source = new InputSource(new StringReader(data));
                 if (!TextUtils.isEmpty(media))
                     source.setMedia(media);
 
@@ -1183,80 +1192,22 @@ public class HtmlHelper {
                 });
 
                 long start = new Date().getTime();
-                sheets.add(parser.parseStyleSheet(source, null, null));
+                StyleIndex.Sheet sheet = new StyleIndex.Sheet(parser.parseStyleSheet(source, null, null), data.length());
+                styleCache.put(key, sheet);
+                sheets.add(sheet);
                 long elapsed = new Date().getTime() - start;
-                Log.i("Style parse=" + elapsed + " ms");
+                Log.i("Style parse=" + elapsed + " ms" +
+                        " hits=" + styleCache.hitCount() + " misses=" + styleCache.missCount());
             } catch (Throwable ex) {
                 Log.w(ex);
             }
         }
-        return sheets;
-    }
-
-    static String processStyles(String tag, String clazz, String style, List<CSSStyleSheet> sheets) {
-        for (CSSStyleSheet sheet : sheets)
-            if (isScreenMedia(sheet.getMedia())) {
-                style = processStyles(null, clazz, style, sheet.getCssRules(), Selector.SAC_ELEMENT_NODE_SELECTOR);
-                style = processStyles(tag, clazz, style, sheet.getCssRules(), Selector.SAC_ELEMENT_NODE_SELECTOR);
-                style = processStyles(tag, clazz, style, sheet.getCssRules(), Selector.SAC_CONDITIONAL_SELECTOR);
-            }
-        return style;
-    }
-
-    private static String processStyles(String tag, String clazz, String style, CSSRuleList rules, int stype) {
-        for (int i = 0; rules != null && i < rules.getLength(); i++) {
-            CSSRule rule = rules.item(i);
-            switch (rule.getType()) {
-                case CSSRule.STYLE_RULE:
-                    CSSStyleRuleImpl srule = (CSSStyleRuleImpl) rule;
-                    for (int j = 0; j < srule.getSelectors().getLength(); j++) {
-                        Selector selector = srule.getSelectors().item(j);
-                        if (selector.getSelectorType() != stype)
-                            continue;
-                        switch (selector.getSelectorType()) {
-                            case Selector.SAC_ELEMENT_NODE_SELECTOR:
-                                ElementSelectorImpl eselector = (ElementSelectorImpl) selector;
-                                if (tag == null
-                                        ? eselector.getLocalName() == null
-                                        : tag.equals(eselector.getLocalName()))
-                                    style = mergeStyles(style, srule.getStyle().getCssText());
-                                break;
-                            case Selector.SAC_CONDITIONAL_SELECTOR:
-                                ConditionalSelectorImpl cselector = (ConditionalSelectorImpl) selector;
-                                if (cselector.getCondition().getConditionType() == SAC_CLASS_CONDITION) {
-                                    ClassConditionImpl ccondition = (ClassConditionImpl) cselector.getCondition();
-                                    if (clazz.equals(ccondition.getValue()))
-                                        style = mergeStyles(style, srule.getStyle().getCssText());
-                                }
-                                break;
-                        }
-                    }
-                    break;
-
-                case CSSRule.MEDIA_RULE:
-                    CSSMediaRuleImpl mrule = (CSSMediaRuleImpl) rule;
-                    if (isScreenMedia(mrule.getMedia()))
-                        style = processStyles(tag, clazz, style, mrule.getCssRules(), stype);
-                    break;
-            }
-        }
-        return style;
+        return new StyleIndex(sheets);
     }
 
-    private static boolean isScreenMedia(MediaList media) {
-        // https://developer.mozilla.org/en-US/docs/Web/CSS/Media_Queries/Using_media_queries
-        // https://developers.google.com/gmail/design/reference/supported_css#supported_types
-        if (media instanceof MediaListImpl) {
-            MediaListImpl _media = (MediaListImpl) media;
-            for (int i = 0; i < _media.getLength(); i++) {
-                String query = _media.mediaQuery(i).getCssText(null);
-                if ("all".equals(query) ||
-                        "screen".equals(query) || "only screen".equals(query))
-                    return true;
-            }
-        } else
-            Log.e("Media class=" + media.getClass().getName());
-        return false;
+    static String processStyles(String tag, String clazz, String style, StyleIndex styles) {
+        String merged = styles.getStyle(tag, clazz);
+        return (merged == null ? style : mergeStyles(style, merged));
     }
 
     static String mergeStyles(String base, String style) {
@@ -1772,6 +1723,13 @@ public class HtmlHelper {
         if (full)
             return text;
 
+        return getPreviewText(text);
+    }
+
+    static String getPreviewText(String text) {
+        if (text == null)
+            return null;
+
         String preview = text
                 .replace("\u200C", "") // Zero-width non-joiner
                 .replaceAll("\\s+", " ");
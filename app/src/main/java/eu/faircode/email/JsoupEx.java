@@ -24,7 +24,6 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -55,7 +54,7 @@ public class JsoupEx {
     }
 
     static Document parse(File in) throws IOException {
-        try (InputStream is = new FileInputStream(in)) {
+        try (InputStream is = Helper.getInputStream(in)) {
             return Jsoup.parse(new FilteredStream(is), StandardCharsets.UTF_8.name(), "");
         }
     }
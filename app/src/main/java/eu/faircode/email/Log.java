@@ -69,6 +69,7 @@ import com.bugsnag.android.OnSessionCallback;
 import com.bugsnag.android.Session;
 import com.bugsnag.android.Severity;
 import com.sun.mail.iap.BadCommandException;
+import com.sun.mail.iap.CommandTrace;
 import com.sun.mail.iap.ConnectionException;
 import com.sun.mail.iap.ProtocolException;
 import com.sun.mail.util.FolderClosedIOException;
@@ -1248,7 +1249,7 @@ public class Log {
             draft.id = db.message().insertMessage(draft);
 
             File file = draft.getFile(context);
-            Helper.writeText(file, body);
+            Helper.writeCompressed(file, body);
             db.message().setMessageContent(draft.id,
                     true,
                     HtmlHelper.getLanguage(context, body),
@@ -1500,6 +1501,7 @@ public class Log {
         attachment.id = db.attachment().insertAttachment(attachment);
 
         DateFormat dtf = Helper.getDateTimeInstance(context, SimpleDateFormat.SHORT, SimpleDateFormat.SHORT);
+        DateFormat TF = Helper.getTimeInstance(context);
 
         long size = 0;
         File file = attachment.getFile(context);
@@ -1531,6 +1533,12 @@ public class Log {
                                     (folder.last_sync == null ? "" : " " + dtf.format(folder.last_sync)) +
                                     "\r\n");
 
+                    for (CommandTrace trace : EmailService.getCommandTraces(account.id)) {
+                        size += write(os, "> " + trace.getHost() + " commands=" + trace.getTotal() + "\r\n");
+                        for (CommandTrace.Entry entry : trace.getEntries())
+                            size += write(os, "  " + TF.format(entry.time) + " " + entry + "\r\n");
+                    }
+
                     size += write(os, "\r\n");
                 }
             }
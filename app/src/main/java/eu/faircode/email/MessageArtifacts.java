@@ -0,0 +1,185 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.mail.Header;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
+// Parsed artifacts of a message shared between synchronization, rules, the classifier and notifications,
+// so that the body is parsed and the headers are formatted only once per message
+
+public class MessageArtifacts {
+    private long id;
+    private String msgid;
+    private long created;
+    private int size = 0;
+
+    private List<String> headers = null;
+
+    private long length = -1;
+    private long modified = -1;
+    private String text = null;
+    private String preview = null;
+    private String language = null;
+    private boolean parsed = false;
+    private boolean detected = false;
+
+    private static final int CACHE_SIZE = 2 * 1024 * 1024; // characters
+    private static final long CACHE_TTL = 5 * 60 * 1000L; // milliseconds
+
+    private static final LruCache<Long, MessageArtifacts> cache = new LruCache<Long, MessageArtifacts>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(Long key, MessageArtifacts value) {
+            return value.size + 1;
+        }
+    };
+
+    private MessageArtifacts(long id, String msgid) {
+        this.id = id;
+        this.msgid = msgid;
+        this.created = SystemClock.elapsedRealtime();
+    }
+
+    static MessageArtifacts get(EntityMessage message) {
+        if (message.id == null)
+            return new MessageArtifacts(-1, message.msgid);
+
+        synchronized (cache) {
+            MessageArtifacts artifacts = cache.get(message.id);
+            if (artifacts == null ||
+                    !Objects.equals(artifacts.msgid, message.msgid) ||
+                    artifacts.created + CACHE_TTL < SystemClock.elapsedRealtime()) {
+                artifacts = new MessageArtifacts(message.id, message.msgid);
+                cache.put(message.id, artifacts);
+            }
+            return artifacts;
+        }
+    }
+
+    static void clear() {
+        synchronized (cache) {
+            cache.evictAll();
+        }
+    }
+
+    synchronized List<String> getHeaders(Message imessage) throws MessagingException {
+        if (headers == null) {
+            List<String> formatted = new ArrayList<>();
+            Enumeration<Header> all = imessage.getAllHeaders();
+            while (all.hasMoreElements()) {
+                Header header = all.nextElement();
+                formatted.add(header.getName() + ": " + header.getValue());
+            }
+            headers = Collections.unmodifiableList(formatted);
+            resize();
+        }
+        return headers;
+    }
+
+    synchronized String getFullText(File file) throws IOException {
+        parse(file);
+        return text;
+    }
+
+    synchronized String getPreview(File file) throws IOException {
+        parse(file);
+        return preview;
+    }
+
+    synchronized String getLanguage(Context context, File file) {
+        try {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            boolean language_detection = prefs.getBoolean("language_detection", false);
+            if (!language_detection)
+                return null;
+
+            parse(file);
+            if (!detected) {
+                Locale locale = TextHelper.detectLanguage(context, preview);
+                language = (locale == null ? null : locale.getLanguage());
+                detected = true;
+            }
+            return language;
+        } catch (Throwable ex) {
+            Log.e(ex);
+            return null;
+        }
+    }
+
+    private void parse(File file) throws IOException {
+        // The body file is rewritten on download, edit and decryption
+        long l = file.length();
+        long m = file.lastModified();
+        if (parsed && l == length && m == modified)
+            return;
+
+        long start = SystemClock.elapsedRealtime();
+        text = (file.exists() ? HtmlHelper.getFullText(file) : null);
+        preview = HtmlHelper.getPreviewText(text);
+        language = null;
+        detected = false;
+        length = l;
+        modified = m;
+        parsed = true;
+        resize();
+
+        Log.i("Artifacts parsed id=" + id +
+                " size=" + (text == null ? null : text.length()) +
+                " elapsed=" + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    private void resize() {
+        int s = 0;
+        if (headers != null)
+            for (String header : headers)
+                s += header.length();
+        if (text != null)
+            s += text.length();
+        if (preview != null)
+            s += preview.length();
+
+        // Re-insert to let the cache account for the new size
+        synchronized (cache) {
+            if (cache.get(id) == this) {
+                cache.remove(id);
+                size = s;
+                cache.put(id, this);
+            } else
+                size = s;
+        }
+    }
+}
@@ -34,7 +34,6 @@ import java.io.File;
 import java.io.IOException;
 import java.text.BreakIterator;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -72,19 +71,8 @@ public class MessageClassifier {
             // Build text to classify
             StringBuilder sb = new StringBuilder();
 
-            List<Address> addresses = new ArrayList<>();
-            if (message.from != null)
-                addresses.addAll(Arrays.asList(message.from));
-            if (message.to != null)
-                addresses.addAll(Arrays.asList(message.to));
-            if (message.cc != null)
-                addresses.addAll(Arrays.asList(message.cc));
-            if (message.bcc != null)
-                addresses.addAll(Arrays.asList(message.bcc));
-            if (message.reply != null)
-                addresses.addAll(Arrays.asList(message.reply));
-
-            for (Address address : addresses) {
+            MessageArtifacts artifacts = MessageArtifacts.get(message);
+            for (Address address : artifacts.getAddresses(message)) {
                 String email = ((InternetAddress) address).getAddress();
                 String name = ((InternetAddress) address).getAddress();
                 if (!TextUtils.isEmpty(email)) {
@@ -101,7 +89,7 @@ public class MessageClassifier {
             if (message.subject != null)
                 sb.append(message.subject).append('\n');
 
-            sb.append(HtmlHelper.getFullText(file));
+            sb.append(artifacts.getFullText(file));
 
             if (sb.length() == 0)
                 return;
@@ -930,6 +930,10 @@ public class MessageHelper {
     }
 
     String getThreadId(Context context, long account, long uid) throws MessagingException {
+        return getThreadId(context, account, uid, new ThreadIndex(account));
+    }
+
+    String getThreadId(Context context, long account, long uid, ThreadIndex index) throws MessagingException {
         if (imessage instanceof GmailMessage) {
             // https://developers.google.com/gmail/imap/imap-extensions#access_to_the_gmail_thread_id_x-gm-thrid
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -941,9 +945,21 @@ public class MessageHelper {
             }
         }
 
-        String thread = null;
         String msgid = getMessageID();
+        String thread = index.resolve(context, msgid, getThreadRefs());
+
+        if (thread == null)
+            if (TextUtils.isEmpty(msgid))
+                thread = Long.toString(uid);
+            else
+                thread = msgid;
+
+        index.put(msgid, thread);
 
+        return thread;
+    }
+
+    List<String> getThreadRefs() throws MessagingException {
         List<String> refs = new ArrayList<>();
         for (String ref : getReferences())
             if (!TextUtils.isEmpty(ref))
@@ -953,39 +969,7 @@ public class MessageHelper {
         if (!TextUtils.isEmpty(inreplyto) && !refs.contains(inreplyto))
             refs.add(inreplyto);
 
-        DB db = DB.getInstance(context);
-        for (String ref : refs) {
-            List<EntityMessage> before = db.message().getMessagesByMsgId(account, ref);
-            for (EntityMessage message : before) {
-                if (thread == null && !TextUtils.isEmpty(message.thread))
-                    thread = message.thread;
-                if (thread != null &&
-                        !TextUtils.isEmpty(message.thread) && !thread.equals(message.thread)) {
-                    Log.w("Updating before thread from " + message.thread + " to " + thread);
-                    db.message().updateMessageThread(message.account, message.thread, thread);
-                }
-            }
-        }
-
-        if (thread == null && refs.size() > 0)
-            thread = refs.get(0);
-
-        if (thread != null) {
-            List<EntityMessage> after = db.message().getMessagesByInReplyTo(account, msgid);
-            for (EntityMessage message : after)
-                if (!TextUtils.isEmpty(message.thread) && !thread.equals(message.thread)) {
-                    Log.w("Updating after thread from " + message.thread + " to " + thread);
-                    db.message().updateMessageThread(message.account, message.thread, thread);
-                }
-        }
-
-        if (thread == null)
-            if (TextUtils.isEmpty(msgid))
-                thread = Long.toString(uid);
-            else
-                thread = msgid;
-
-        return thread;
+        return refs;
     }
 
     String[] getLabels() throws MessagingException {
@@ -2003,6 +1987,7 @@ public class MessageHelper {
 
             // Download attachment
             File file = EntityAttachment.getFile(context, local.id, local.name);
+            AttachmentStore.detach(file);
             db.attachment().setProgress(local.id, 0);
 
             if (EntityAttachment.PGP_CONTENT.equals(apart.encrypt) ||
@@ -0,0 +1,357 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.text.TextUtils;
+
+import androidx.appcompat.view.ContextThemeWrapper;
+import androidx.preference.PreferenceManager;
+
+import org.json.JSONObject;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+import javax.mail.Address;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+// Sanitized reader view documents persisted in the cache folder,
+// keyed by message id, content revision and display settings
+
+public class RenderCache {
+    private static Resources.Theme theme = null;
+
+    private static final long CACHE_SIZE = 25 * 1024 * 1024L; // bytes
+    private static final long TMP_GRACE = 60 * 1000L; // milliseconds
+
+    private static final ExecutorService executor =
+            Helper.getBackgroundExecutor(1, "render");
+
+    static class Rendered {
+        Document document;
+        boolean has_images;
+        boolean inline_encrypted;
+    }
+
+    static void setTheme(Context context) {
+        // Copy the theme to not hold on to the activity
+        Resources.Theme copy = context.getApplicationContext().getResources().newTheme();
+        copy.setTo(context.getTheme());
+        synchronized (RenderCache.class) {
+            theme = copy;
+        }
+    }
+
+    static Document load(Context context, File file, List<EntityAttachment> attachments) throws IOException {
+        Document document = JsoupEx.parse(file);
+
+        // Add embedded messages
+        for (EntityAttachment attachment : attachments)
+            if (attachment.available && "message/rfc822".equals(attachment.getMimeType()))
+                try (FileInputStream fis = new FileInputStream(attachment.getFile(context))) {
+                    Properties props = MessageHelper.getSessionProperties();
+                    Session isession = Session.getInstance(props, null);
+                    MimeMessage imessage = new MimeMessage(isession, fis);
+                    MessageHelper helper = new MessageHelper(imessage, context);
+                    MessageHelper.MessageParts parts = helper.getMessageParts();
+
+                    EntityMessage embedded = new EntityMessage();
+                    embedded.from = helper.getFrom();
+                    embedded.to = helper.getTo();
+                    embedded.cc = helper.getCc();
+                    embedded.received = helper.getReceivedHeader();
+                    if (embedded.received == null)
+                        embedded.received = helper.getSent();
+                    embedded.subject = helper.getSubject();
+
+                    String html = parts.getHtml(context);
+                    Document d = (html == null ? Document.createShell("") : JsoupEx.parse(html));
+
+                    Element div = document.createElement("div");
+                    div.appendElement("hr");
+
+                    Element h = document.createElement("p");
+                    h.attr("style", "text-align: center;");
+
+                    Element em = document.createElement("em");
+                    em.text(TextUtils.isEmpty(attachment.name)
+                            ? context.getString(R.string.title_attachment_eml) : attachment.name);
+                    h.appendChild(em);
+
+                    div.appendChild(h);
+
+                    Element p = embedded.getReplyHeader(context, document, false, true);
+                    div.appendChild(p);
+
+                    div.appendChild(d.body().tagName("p"));
+
+                    document.body().appendChild(div);
+                } catch (Throwable ex) {
+                    Log.e(ex);
+                }
+
+        HtmlHelper.cleanup(document);
+
+        return document;
+    }
+
+    static boolean hasImages(Document document, boolean inline) {
+        for (Element img : document.select("img"))
+            if (!inline || !img.attr("src").startsWith("cid:"))
+                return true;
+        return false;
+    }
+
+    static String getKey(Context context, EntityMessage message, List<EntityAttachment> attachments, boolean show_images) {
+        File file = message.getFile(context);
+
+        // Settings used by HtmlHelper.sanitize
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        Map<String, ?> all = prefs.getAll();
+        StringBuilder sb = new StringBuilder();
+        sb.append(BuildConfig.VERSION_CODE)
+                .append('/').append(file.length())
+                .append('/').append(file.lastModified())
+                .append('/').append(show_images)
+                .append('/').append(prefs.getString("theme", "light"))
+                .append('/').append(Helper.isDarkTheme(context))
+                .append('/').append(Helper.resolveColor(context, android.R.attr.textColorPrimary));
+        for (String key : new String[]{
+                "text_color", "text_size", "text_font", "text_align",
+                "display_hidden", "disable_tracking", "disconnect_images", "parse_classes",
+                "inline_images", "text_separators", "image_placeholders"})
+            sb.append('/').append(key).append('=').append(all.get(key));
+
+        for (EntityAttachment attachment : attachments)
+            if ("message/rfc822".equals(attachment.getMimeType()))
+                sb.append('/').append(attachment.id).append('=').append(attachment.available);
+
+        try {
+            return Helper.sha256(sb.toString());
+        } catch (Throwable ex) {
+            Log.e(ex);
+            return sb.toString();
+        }
+    }
+
+    static Rendered get(Context context, long id, String key) {
+        File file = getFile(context, id);
+        if (!file.exists())
+            return null;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            if (!key.equals(br.readLine()))
+                return null;
+
+            JSONObject jrendered = new JSONObject(br.readLine());
+
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int len;
+            while ((len = br.read(buffer)) > 0)
+                sb.append(buffer, 0, len);
+
+            Rendered rendered = new Rendered();
+            rendered.document = JsoupEx.parse(sb.toString());
+            rendered.has_images = jrendered.getBoolean("has_images");
+            rendered.inline_encrypted = jrendered.getBoolean("inline_encrypted");
+
+            file.setLastModified(System.currentTimeMillis());
+            Log.i("Render cache hit id=" + id + " size=" + file.length());
+            return rendered;
+        } catch (Throwable ex) {
+            Log.w(ex);
+            file.delete();
+            return null;
+        }
+    }
+
+    static void put(Context context, long id, String key, Rendered rendered) {
+        File file = getFile(context, id);
+        File tmp = null;
+        try {
+            JSONObject jrendered = new JSONObject();
+            jrendered.put("has_images", rendered.has_images);
+            jrendered.put("inline_encrypted", rendered.inline_encrypted);
+
+            // Readers should never see a partially written file
+            tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(tmp))) {
+                bw.write(key);
+                bw.newLine();
+                bw.write(jrendered.toString());
+                bw.newLine();
+                bw.write(rendered.document.html());
+            }
+
+            if (!tmp.renameTo(file))
+                throw new IOException("Error renaming " + tmp + " to " + file);
+
+            Log.i("Render cache put id=" + id + " size=" + file.length());
+        } catch (Throwable ex) {
+            Log.w(ex);
+            if (tmp != null)
+                tmp.delete();
+        }
+
+        evict(context);
+    }
+
+    static void prerender(Context context, long id) {
+        final Context themed;
+        synchronized (RenderCache.class) {
+            if (theme == null) {
+                Log.i("Render cache no theme id=" + id);
+                return;
+            }
+            themed = new ContextThemeWrapper(context.getApplicationContext(), theme);
+        }
+
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DB db = DB.getInstance(themed);
+                    EntityMessage message = db.message().getMessage(id);
+                    if (message == null || !message.content || message.ui_seen)
+                        return;
+
+                    EntityFolder folder = db.folder().getFolder(message.folder);
+                    if (folder == null || !folder.notify)
+                        return;
+
+                    File file = message.getFile(themed);
+                    if (!file.exists())
+                        return;
+
+                    List<EntityAttachment> attachments = db.attachment().getAttachments(message.id);
+                    boolean show_images = isShowImages(themed, folder, message);
+
+                    String key = getKey(themed, message, attachments, show_images);
+                    File cached = getFile(themed, id);
+                    if (cached.exists())
+                        try (BufferedReader br = new BufferedReader(new FileReader(cached))) {
+                            if (key.equals(br.readLine()))
+                                return;
+                        }
+
+                    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(themed);
+                    boolean inline = prefs.getBoolean("inline_images", false);
+
+                    long start = System.currentTimeMillis();
+
+                    Document document = load(themed, file, attachments);
+
+                    Rendered rendered = new Rendered();
+                    rendered.inline_encrypted = HtmlHelper.contains(document, new String[]{
+                            Helper.PGP_BEGIN_MESSAGE,
+                            Helper.PGP_END_MESSAGE
+                    });
+                    rendered.has_images = hasImages(document, inline);
+                    rendered.document = HtmlHelper.sanitizeView(themed, document, show_images);
+
+                    put(themed, id, key, rendered);
+
+                    Log.i("Render cache prerendered id=" + id +
+                            " elapsed=" + (System.currentTimeMillis() - start) + " ms");
+                } catch (Throwable ex) {
+                    Log.w(ex);
+                }
+            }
+        });
+    }
+
+    private static boolean isShowImages(Context context, EntityFolder folder, EntityMessage message) {
+        // Same defaults as the message list, without the choices made while viewing
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (message.from != null)
+            for (Address sender : message.from) {
+                String from = ((InternetAddress) sender).getAddress();
+                if (prefs.getBoolean(from + ".show_images", false))
+                    return true;
+            }
+
+        boolean confirm_images = prefs.getBoolean("confirm_images", true);
+        return (!confirm_images && !EntityFolder.JUNK.equals(folder.type));
+    }
+
+    private static synchronized void evict(Context context) {
+        File[] files = getDir(context).listFiles();
+        if (files == null)
+            return;
+
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        if (size <= CACHE_SIZE)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (File file : files) {
+            if (size <= CACHE_SIZE)
+                break;
+            // Temporary files can be being written by another thread
+            if (file.getName().endsWith(".tmp") && file.lastModified() + TMP_GRACE > now)
+                continue;
+            size -= file.length();
+            if (file.delete())
+                count++;
+        }
+
+        Log.i("Render cache evicted=" + count + " size=" + size);
+    }
+
+    private static File getDir(Context context) {
+        File dir = new File(context.getCacheDir(), "render");
+        if (!dir.exists())
+            dir.mkdir();
+        return dir;
+    }
+
+    private static File getFile(Context context, long id) {
+        return new File(getDir(context), Long.toString(id));
+    }
+}
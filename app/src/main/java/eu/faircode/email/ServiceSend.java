@@ -31,6 +31,7 @@ import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
+import android.net.Uri;
 import android.os.PowerManager;
 import android.text.TextUtils;
 
@@ -41,6 +42,13 @@ import androidx.core.content.ContextCompat;
 import androidx.lifecycle.Observer;
 import androidx.preference.PreferenceManager;
 
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.imap.AppendUID;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BASE64MailboxEncoder;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.smtp.SMTPTransport;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -48,6 +56,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
@@ -55,6 +64,9 @@ import java.util.concurrent.ExecutorService;
 
 import javax.mail.Address;
 import javax.mail.AuthenticationFailedException;
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
 import javax.mail.MessageRemovedException;
 import javax.mail.MessagingException;
 import javax.mail.SendFailedException;
@@ -72,6 +84,8 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
     private List<Long> handling = new ArrayList<>();
 
     private static ExecutorService executor = Helper.getBackgroundExecutor(1, "send");
+    private static final Map<Long, Boolean> urlauth = new HashMap<>(); // account id
+
 
     private static final int PI_SEND = 1;
     private static final int RETRY_MAX = 3;
@@ -179,6 +193,8 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         nm.cancel(Helper.NOTIFICATION_SEND);
 
+        EntityLog.flush(this);
+
         super.onDestroy();
     }
 
@@ -556,7 +572,7 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
                 message.id = db.message().insertMessage(message);
 
                 File file = EntityMessage.getFile(this, message.id);
-                Helper.writeText(file, body);
+                Helper.writeCompressed(file, body);
                 db.message().setMessageContent(message.id,
                         true,
                         language,
@@ -590,6 +606,7 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
         // Create transport
         long start, end;
         Long max_size = null;
+        Long burl = null;
         try (EmailService iservice = new EmailService(
                 this, ident.getProtocol(), ident.realm, ident.encryption, ident.insecure, debug)) {
             iservice.setUseIp(ident.use_ip, ident.ehlo);
@@ -618,9 +635,18 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
             // Send message
             EntityLog.log(this, "Sending " + via);
             start = new Date().getTime();
-            iservice.getTransport().sendMessage(imessage, to);
+            if (sent != null)
+                try {
+                    burl = onBurl(ident, sent, imessage, to, iservice.getTransport(), debug);
+                } catch (Throwable ex) {
+                    Log.w(ex);
+                }
+            if (burl == null)
+                iservice.getTransport().sendMessage(imessage, to);
             end = new Date().getTime();
-            EntityLog.log(this, "Sent " + via + " elapse=" + (end - start) + " ms");
+            EntityLog.log(this, "Sent " + via + " elapse=" + (end - start) + " ms" +
+                    (burl == null ? "" : " burl saved=" +
+                            (message.total == null ? "?" : Helper.humanReadableByteCount(message.total))));
         } catch (MessagingException ex) {
             Log.e(ex);
 
@@ -678,7 +704,11 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
         nm.cancel("send:" + message.id, 1);
 
         // Check sent message
-        if (sid != null) {
+        if (sid != null && burl != null) {
+            // Sent message was appended before submission
+            EntityOperation.queue(this, sent, EntityOperation.FETCH, burl);
+            ServiceSynchronize.eval(this, "burl");
+        } else if (sid != null) {
             try {
                 // Some email servers are slow with adding sent messages
                 Thread.sleep(EXISTS_DELAY);
@@ -703,6 +733,106 @@ public class ServiceSend extends ServiceBase implements SharedPreferences.OnShar
         }
     }
 
+    private Long onBurl(EntityIdentity ident, EntityFolder sent, MimeMessage imessage, Address[] to, SMTPTransport itransport, boolean debug) throws MessagingException {
+        // https://tools.ietf.org/html/rfc4468
+        String burl = itransport.getExtensionParameter("BURL");
+        if (burl == null || !burl.toLowerCase(Locale.ROOT).contains("imap"))
+            return null;
+
+        if (sent.local)
+            return null;
+
+        // The server submits the stored message as is, so blind copies would be visible to all recipients
+        Address[] bcc = imessage.getRecipients(Message.RecipientType.BCC);
+        if (bcc != null && bcc.length > 0)
+            return null;
+
+        DB db = DB.getInstance(this);
+        EntityAccount account = db.account().getAccount(sent.account);
+        if (account == null || account.protocol != EntityAccount.TYPE_IMAP)
+            return null;
+
+        // Skip connecting when the account is known not to support it
+        if (Boolean.FALSE.equals(getUrlAuth(account.id)))
+            return null;
+
+        try (EmailService aservice = new EmailService(
+                this, account.getProtocol(), account.realm, account.encryption, account.insecure, debug)) {
+            aservice.connect(account);
+
+            // https://tools.ietf.org/html/rfc4467
+            boolean supported = (aservice.hasCapability("URLAUTH") && aservice.hasCapability("UIDPLUS"));
+            setUrlAuth(account.id, supported);
+            if (!supported)
+                return null;
+
+            // Store sent message first
+            IMAPFolder ifolder = (IMAPFolder) aservice.getStore().getFolder(sent.name);
+            imessage.setFlag(Flags.Flag.SEEN, true);
+            AppendUID[] uids = ifolder.appendUIDMessages(new Message[]{imessage});
+            if (uids == null || uids.length != 1 || uids[0] == null || uids[0].uid <= 0)
+                return null;
+            final long uid = uids[0].uid;
+            Log.i(sent.name + " appended uid=" + uid);
+
+            // The submit server authenticates as the identity user
+            final String url = "imap://" + Uri.encode(account.user) + "@" + account.host +
+                    (account.port == 143 || account.port == 993 ? "" : ":" + account.port) +
+                    "/" + Uri.encode(BASE64MailboxEncoder.encode(sent.name), "/.") +
+                    ";UIDVALIDITY=" + uids[0].uidvalidity + "/;UID=" + uid +
+                    ";urlauth=submit+" + Uri.encode(ident.user);
+            boolean submitting = false;
+            try {
+                String authurl = (String) ifolder.doCommand(new IMAPFolder.ProtocolCommand() {
+                    @Override
+                    public Object doCommand(IMAPProtocol protocol) throws ProtocolException {
+                        return protocol.genurlauth(url, "INTERNAL");
+                    }
+                });
+                if (authurl == null)
+                    throw new IllegalArgumentException("GENURLAUTH failed");
+
+                submitting = true;
+                itransport.burlMessage(imessage, to, authurl);
+                return uid;
+            } catch (Throwable ex) {
+                Log.w(ex);
+                if (submitting)
+                    try {
+                        itransport.simpleCommand("RSET");
+                    } catch (MessagingException exex) {
+                        Log.w(exex);
+                    }
+
+                // Remove the stored message, sending with DATA will store the sent message as usual
+                try {
+                    ifolder.open(Folder.READ_WRITE);
+                    Message iappended = ifolder.getMessageByUID(uid);
+                    if (iappended != null) {
+                        iappended.setFlag(Flags.Flag.DELETED, true);
+                        ifolder.expunge(new Message[]{iappended});
+                    }
+                } catch (MessagingException exex) {
+                    Log.w(exex);
+                }
+
+                return null;
+            }
+        }
+    }
+
+    static void setUrlAuth(long account, boolean supported) {
+        synchronized (urlauth) {
+            urlauth.put(account, supported);
+        }
+    }
+
+    private static Boolean getUrlAuth(long account) {
+        synchronized (urlauth) {
+            return urlauth.get(account);
+        }
+    }
+
     static void boot(final Context context) {
         executor.submit(new Runnable() {
             @Override
@@ -71,7 +71,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.mail.AuthenticationFailedException;
 import javax.mail.Folder;
@@ -146,7 +145,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
             "sync_kept",
             "sync_folders",
             "sync_shared_folders",
-            "prefer_ip4", "standalone_vpn", "tcp_keep_alive", "ssl_harden", // force reconnect
+            "prefer_ip4", "standalone_vpn", "tcp_keep_alive", "ssl_harden", "folder_connections", // force reconnect
             "badge", "unseen_ignored", // force update badge/widget
             "experiments", "debug", "protocol", // force reconnect
             "auth_plain",
@@ -579,6 +578,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
         });
 
         Map<Long, List<Long>> groupNotifying = new HashMap<>();
+        Map<Long, TupleMessageNotify> notifyLast = new HashMap<>();
 
         // Get existing notifications
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
@@ -613,17 +613,17 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                 */
             }
 
-        db.message().liveUnseenNotify().observe(cowner, new Observer<List<TupleMessageEx>>() {
+        db.message().liveUnseenNotify().observe(cowner, new Observer<List<TupleMessageNotify>>() {
             private ExecutorService executor =
                     Helper.getBackgroundExecutor(1, "notify");
 
             @Override
-            public void onChanged(final List<TupleMessageEx> messages) {
+            public void onChanged(final List<TupleMessageNotify> messages) {
                 executor.submit(new Runnable() {
                     @Override
                     public void run() {
                         try {
-                            Core.notifyMessages(ServiceSynchronize.this, messages, groupNotifying, foreground);
+                            Core.notifyMessages(ServiceSynchronize.this, messages, groupNotifying, notifyLast, foreground);
                         } catch (SecurityException ex) {
                             Log.w(ex);
                             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ServiceSynchronize.this);
@@ -696,30 +696,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
             }
         });
 
-        db.message().liveWidgetUnified().observe(cowner, new Observer<List<TupleMessageWidgetCount>>() {
-            private List<TupleMessageWidgetCount> last = null;
-
-            @Override
-            public void onChanged(List<TupleMessageWidgetCount> current) {
-                if (current == null)
-                    current = new ArrayList<>();
-
-                boolean changed = false;
-                if (last == null || last.size() != current.size())
-                    changed = true;
-                else
-                    for (int i = 0; i < current.size(); i++)
-                        if (!current.get(i).equals(last.get(i))) {
-                            changed = true;
-                            break;
-                        }
-
-                if (changed)
-                    WidgetUnified.updateData(ServiceSynchronize.this);
-
-                last = current;
-            }
-        });
+        WidgetSnapshot.start(this);
 
         prefs.registerOnSharedPreferenceChangeListener(this);
     }
@@ -760,6 +737,8 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
 
         TTSHelper.shutdown();
 
+        WidgetSnapshot.stop(this);
+
         try {
             stopForeground(true);
         } catch (Throwable ex) {
@@ -790,6 +769,8 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         nm.cancel(Helper.NOTIFICATION_SYNCHRONIZE);
 
+        EntityLog.flush(this);
+
         super.onDestroy();
     }
 
@@ -1007,19 +988,23 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                 Log.i(account.name + " run thread=" + currentThread);
 
                 final ObjectHolder<TwoStateOwner> cowner = new ObjectHolder<>();
-                final ExecutorService executor =
-                        Helper.getBackgroundExecutor(1, "account_" + account.id);
 
                 // Debug
                 SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
                 boolean subscriptions = prefs.getBoolean("subscriptions", false);
                 boolean debug = (prefs.getBoolean("debug", false) || BuildConfig.DEBUG);
+                int folder_connections = prefs.getInt("folder_connections", AccountScheduler.DEFAULT_CONNECTIONS);
+
+                final AccountScheduler scheduler = new AccountScheduler(
+                        this, account.id, account.name, folder_connections);
 
                 final EmailService iservice = new EmailService(
                         this, account.getProtocol(), account.realm, account.encryption, account.insecure, debug);
                 iservice.setPartialFetch(account.partial_fetch);
                 iservice.setIgnoreBodyStructureSize(account.ignore_size);
-                if (account.protocol != EntityAccount.TYPE_IMAP)
+                if (account.protocol == EntityAccount.TYPE_IMAP)
+                    iservice.setFetchSize(FetchTuner.getFetchSize(this, account.id));
+                else
                     iservice.setLeaveOnServer(account.leave_on_server);
 
                 final long start = new Date().getTime();
@@ -1100,6 +1085,9 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
 
                     final boolean capNotify = iservice.hasCapability("NOTIFY");
 
+                    ServiceSend.setUrlAuth(account.id,
+                            iservice.hasCapability("URLAUTH") && iservice.hasCapability("UIDPLUS"));
+
                     db.account().setAccountState(account.id, "connected");
                     db.account().setAccountError(account.id, null);
                     db.account().setAccountWarning(account.id, null);
@@ -1424,7 +1412,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                     final Runnable purge = new Runnable() {
                         @Override
                         public void run() {
-                            executor.submit(new Runnable() {
+                            scheduler.submit(new Runnable() {
                                 @Override
                                 public void run() {
                                     try {
@@ -1534,7 +1522,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
 
                                             final long sequence = state.getSequence(folder.id, key.getPriority());
 
-                                            executor.submit(new Helper.PriorityRunnable(key.getPriority(), key.getOrder()) {
+                                            scheduler.submit(folder.id, new Helper.PriorityRunnable(key.getPriority(), key.getOrder()) {
                                                 @Override
                                                 public void run() {
                                                     super.run();
@@ -1556,6 +1544,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                                                         boolean canOpen = (EntityFolder.INBOX.equals(folder.type) ||
                                                                 (account.protocol == EntityAccount.TYPE_IMAP && !folder.local));
                                                         final boolean shouldClose = (ifolder == null && canOpen);
+                                                        boolean connection = false;
 
                                                         try {
                                                             Log.i(folder.name + " run " + (shouldClose ? "offline" : "online"));
@@ -1565,6 +1554,11 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                                                                 if (db.operation().getOperationCount(folder.id, null) == 0)
                                                                     return;
 
+                                                                // Folders kept open by the monitor use their own connection
+                                                                connection = scheduler.acquire(this);
+                                                                if (!connection)
+                                                                    return;
+
                                                                 db.folder().setFolderState(folder.id, "connecting");
 
                                                                 try {
@@ -1601,7 +1595,9 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                                                                     iservice.getStore(), ifolder,
                                                                     state, key.getPriority(), sequence);
 
+                                                            scheduler.succeeded();
                                                         } catch (Throwable ex) {
+                                                            scheduler.failed(ex);
                                                             Log.e(folder.name, ex);
                                                             EntityLog.log(
                                                                     ServiceSynchronize.this,
@@ -1621,6 +1617,8 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                                                                 }
                                                                 db.folder().setFolderState(folder.id, null);
                                                             }
+                                                            if (connection)
+                                                                scheduler.release();
                                                         }
                                                     } finally {
                                                         wlOperations.release();
@@ -1822,7 +1820,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                     // Stop executing operations
                     Log.i(account.name + " stop executing operations");
                     state.resetBatches();
-                    ((ThreadPoolExecutor) executor).getQueue().clear();
+                    scheduler.stop();
 
                     // Close folders
                     for (EntityFolder folder : mapFolders.keySet()) {
@@ -42,14 +42,14 @@ public class ServiceTileUnseen extends TileService {
 
         DB db = DB.getInstance(this);
 
-        db.message().liveUnseenNotify().observe(owner, new Observer<List<TupleMessageEx>>() {
+        db.message().liveUnseenNotify().observe(owner, new Observer<List<TupleMessageNotify>>() {
             @Override
-            public void onChanged(List<TupleMessageEx> messages) {
+            public void onChanged(List<TupleMessageNotify> messages) {
                 if (messages == null)
                     messages = new ArrayList<>();
 
                 int unseen = 0;
-                for (TupleMessageEx message : messages)
+                for (TupleMessageNotify message : messages)
                     if (!message.ui_seen && !message.ui_ignored && !message.ui_hide)
                         unseen++;
 
@@ -329,7 +329,7 @@ public class ServiceUI extends IntentService {
             reply.id = db.message().insertMessage(reply);
 
             File file = reply.getFile(this);
-            Helper.writeText(file, body);
+            Helper.writeCompressed(file, body);
 
             db.message().setMessageContent(reply.id,
                     true,
@@ -0,0 +1,167 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import com.steadystate.css.dom.CSSMediaRuleImpl;
+import com.steadystate.css.dom.CSSStyleRuleImpl;
+import com.steadystate.css.dom.MediaListImpl;
+import com.steadystate.css.parser.selectors.ClassConditionImpl;
+import com.steadystate.css.parser.selectors.ConditionalSelectorImpl;
+import com.steadystate.css.parser.selectors.ElementSelectorImpl;
+
+import org.w3c.css.sac.Selector;
+import org.w3c.dom.css.CSSRule;
+import org.w3c.dom.css.CSSRuleList;
+import org.w3c.dom.css.CSSStyleSheet;
+import org.w3c.dom.stylesheets.MediaList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.w3c.css.sac.Condition.SAC_CLASS_CONDITION;
+
+// Style rules of the style sheets of a message indexed by tag and class name,
+// so that looking up the style of an element only visits the matching rules
+
+public class StyleIndex {
+    private final List<Sheet> sheets = new ArrayList<>();
+    private final Map<String, String> merged = new HashMap<>();
+
+    StyleIndex() {
+    }
+
+    StyleIndex(List<Sheet> sheets) {
+        this.sheets.addAll(sheets);
+    }
+
+    String getStyle(String tag, String clazz) {
+        if (sheets.isEmpty())
+            return null;
+
+        String key = tag + "/" + clazz;
+        if (merged.containsKey(key))
+            return merged.get(key);
+
+        // Same order as the browser would apply: per sheet universal, element and class rules
+        String style = null;
+        for (Sheet sheet : sheets) {
+            style = merge(style, sheet.universal);
+            style = merge(style, sheet.tags.get(tag));
+            style = merge(style, sheet.classes.get(clazz));
+        }
+
+        merged.put(key, style);
+        return style;
+    }
+
+    private static String merge(String style, List<String> rules) {
+        if (rules != null)
+            for (String rule : rules)
+                style = HtmlHelper.mergeStyles(style, rule);
+        return style;
+    }
+
+    static boolean isScreenMedia(MediaList media) {
+        // https://developer.mozilla.org/en-US/docs/Web/CSS/Media_Queries/Using_media_queries
+        // https://developers.google.com/gmail/design/reference/supported_css#supported_types
+        if (media instanceof MediaListImpl) {
+            MediaListImpl _media = (MediaListImpl) media;
+            for (int i = 0; i < _media.getLength(); i++) {
+                String query = _media.mediaQuery(i).getCssText(null);
+                if ("all".equals(query) ||
+                        "screen".equals(query) || "only screen".equals(query))
+                    return true;
+            }
+        } else
+            Log.e("Media class=" + media.getClass().getName());
+        return false;
+    }
+
+    // Immutable once indexed, so it can be shared between messages and threads
+    static class Sheet {
+        private final int size;
+        private final List<String> universal = new ArrayList<>();
+        private final Map<String, List<String>> tags = new HashMap<>();
+        private final Map<String, List<String>> classes = new HashMap<>();
+
+        Sheet(CSSStyleSheet sheet, int size) {
+            this.size = size;
+            if (isScreenMedia(sheet.getMedia()))
+                add(sheet.getCssRules());
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        private void add(CSSRuleList rules) {
+            for (int i = 0; rules != null && i < rules.getLength(); i++) {
+                CSSRule rule = rules.item(i);
+                switch (rule.getType()) {
+                    case CSSRule.STYLE_RULE:
+                        CSSStyleRuleImpl srule = (CSSStyleRuleImpl) rule;
+                        String css = null;
+                        for (int j = 0; j < srule.getSelectors().getLength(); j++) {
+                            Selector selector = srule.getSelectors().item(j);
+                            switch (selector.getSelectorType()) {
+                                case Selector.SAC_ELEMENT_NODE_SELECTOR:
+                                    ElementSelectorImpl eselector = (ElementSelectorImpl) selector;
+                                    if (css == null)
+                                        css = srule.getStyle().getCssText();
+                                    String name = eselector.getLocalName();
+                                    if (name == null)
+                                        universal.add(css);
+                                    else
+                                        add(tags, name, css);
+                                    break;
+                                case Selector.SAC_CONDITIONAL_SELECTOR:
+                                    ConditionalSelectorImpl cselector = (ConditionalSelectorImpl) selector;
+                                    if (cselector.getCondition().getConditionType() == SAC_CLASS_CONDITION) {
+                                        ClassConditionImpl ccondition = (ClassConditionImpl) cselector.getCondition();
+                                        if (css == null)
+                                            css = srule.getStyle().getCssText();
+                                        add(classes, ccondition.getValue(), css);
+                                    }
+                                    break;
+                            }
+                        }
+                        break;
+
+                    case CSSRule.MEDIA_RULE:
+                        CSSMediaRuleImpl mrule = (CSSMediaRuleImpl) rule;
+                        if (isScreenMedia(mrule.getMedia()))
+                            add(mrule.getCssRules());
+                        break;
+                }
+            }
+        }
+
+        private static void add(Map<String, List<String>> index, String key, String css) {
+            List<String> list = index.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                index.put(key, list);
+            }
+            list.add(css);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import org.jsoup.parser.Parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+// Case insensitive Boyer-Moore-Horspool search in the text of a streamed HTML document
+// The text is normalized like the full text: without tags, with entities decoded and with collapsed white space
+
+public class TextMatcher {
+    private final char[] pattern;
+    private final int[] shift = new int[256];
+
+    private static final int BUFFER_SIZE = 8192; // characters
+    private static final int MAX_TAG = 16; // characters
+    private static final int MAX_ENTITY = 32; // characters, longest named entity is 31
+
+    private static final Set<String> SKIP_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "head", "script", "style"
+    )));
+
+    private static final Set<String> BLOCK_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "address", "blockquote", "br", "dd", "div", "dl", "dt", "h1", "h2", "h3", "h4", "h5", "h6",
+            "hr", "li", "ol", "p", "pre", "table", "td", "th", "tr", "ul"
+    )));
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int COMMENT = 2;
+    private static final int ENTITY = 3;
+
+    TextMatcher(String query) {
+        StringBuilder sb = new StringBuilder();
+        boolean space = false;
+        for (char c : query.toCharArray())
+            if (isSpace(c)) {
+                if (!space)
+                    sb.append(' ');
+                space = true;
+            } else {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            }
+        pattern = sb.toString().toCharArray();
+
+        // Characters are hashed into the table, so the smallest shift of colliding characters is used
+        int m = pattern.length;
+        Arrays.fill(shift, Math.max(1, m));
+        for (int i = 0; i < m - 1; i++)
+            shift[pattern[i] & 0xFF] = m - 1 - i;
+    }
+
+    boolean matchesHtml(Reader reader) throws IOException {
+        if (pattern.length == 0)
+            return true;
+
+        Scanner scanner = new Scanner();
+        StringBuilder tag = new StringBuilder(MAX_TAG);
+        StringBuilder entity = new StringBuilder(MAX_ENTITY);
+        String skip = null;
+        int mode = TEXT;
+        char prev = 0;
+        char prev2 = 0;
+
+        char[] buffer = new char[BUFFER_SIZE];
+        for (int len = reader.read(buffer); len != -1; len = reader.read(buffer))
+            for (int i = 0; i < len; i++) {
+                char c = buffer[i];
+
+                if (mode == TEXT) {
+                    if (c == '<') {
+                        mode = TAG;
+                        tag.setLength(0);
+                    } else if (skip == null) {
+                        if (c == '&') {
+                            mode = ENTITY;
+                            entity.setLength(0);
+                        } else if (scanner.put(c))
+                            return true;
+                    }
+
+                } else if (mode == TAG) {
+                    if (c == '>') {
+                        mode = TEXT;
+                        String name = getTagName(tag);
+                        boolean closing = name.startsWith("/");
+                        if (closing)
+                            name = name.substring(1);
+
+                        if (skip != null) {
+                            if (closing && name.equals(skip))
+                                skip = null;
+                        } else if (!closing && prev != '/' && SKIP_TAGS.contains(name))
+                            skip = name;
+                        else if (BLOCK_TAGS.contains(name))
+                            if (scanner.put(' '))
+                                return true;
+                    } else {
+                        if (tag.length() < MAX_TAG)
+                            tag.append(c);
+                        if (tag.length() == 3 && "!--".contentEquals(tag))
+                            mode = COMMENT;
+                    }
+
+                } else if (mode == COMMENT) {
+                    if (c == '>' && prev == '-' && prev2 == '-')
+                        mode = TEXT;
+
+                } else if (mode == ENTITY) {
+                    if (c == ';') {
+                        mode = TEXT;
+                        if (scanner.put(decode(entity)))
+                            return true;
+                    } else if ((Character.isLetterOrDigit(c) || c == '#') && entity.length() < MAX_ENTITY)
+                        entity.append(c);
+                    else {
+                        // Not an entity: process the characters as text
+                        mode = TEXT;
+                        if (scanner.put('&') || scanner.put(entity))
+                            return true;
+                        i--;
+                        continue;
+                    }
+                }
+
+                prev2 = prev;
+                prev = c;
+            }
+
+        if (mode == ENTITY)
+            if (scanner.put('&') || scanner.put(entity))
+                return true;
+
+        return scanner.flush();
+    }
+
+    private boolean search(char[] text, int n) {
+        int m = pattern.length;
+        int i = 0;
+        while (i <= n - m) {
+            int j = m - 1;
+            while (j >= 0 && text[i + j] == pattern[j])
+                j--;
+            if (j < 0)
+                return true;
+            i += shift[text[i + m - 1] & 0xFF];
+        }
+        return false;
+    }
+
+    private static String getTagName(StringBuilder tag) {
+        int end = 0;
+        while (end < tag.length()) {
+            char c = tag.charAt(end);
+            if (Character.isWhitespace(c) || (c == '/' && end > 0))
+                break;
+            end++;
+        }
+        return tag.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static CharSequence decode(StringBuilder entity) {
+        // Unknown entities are returned as text
+        return Parser.unescapeEntities("&" + entity + ";", false);
+    }
+
+    private static boolean isSpace(char c) {
+        return (Character.isWhitespace(c) || c == '\u00a0');
+    }
+
+    private class Scanner {
+        private final char[] text = new char[BUFFER_SIZE + pattern.length];
+        private int n = 0;
+        private boolean space = true;
+
+        boolean put(CharSequence cs) {
+            for (int i = 0; i < cs.length(); i++)
+                if (put(cs.charAt(i)))
+                    return true;
+            return false;
+        }
+
+        boolean put(char c) {
+            if (isSpace(c)) {
+                if (space)
+                    return false;
+                space = true;
+                c = ' ';
+            } else {
+                space = false;
+                c = Character.toLowerCase(c);
+            }
+
+            text[n++] = c;
+            return (n == text.length && flush());
+        }
+
+        boolean flush() {
+            if (search(text, n))
+                return true;
+
+            // Keep the characters which can be part of a match with the next characters
+            int keep = Math.min(n, pattern.length - 1);
+            System.arraycopy(text, n - keep, text, 0, keep);
+            n = keep;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Message ID to thread index of an account for the duration of a synchronization batch
+// Merged threads are tracked union-find style, so that each merge is one rename of the old thread
+
+public class ThreadIndex {
+    private long account;
+    private final Map<String, List<String>> threads = new HashMap<>(); // by msgid, empty if not stored
+    private final Map<String, String> merged = new HashMap<>(); // thread > thread it was renamed to
+
+    private static final int MAX_LOOKUP = 500; // SQLite variables
+
+    ThreadIndex(long account) {
+        this.account = account;
+    }
+
+    void prefetch(Context context, Collection<String> msgids) {
+        List<String> lookup = new ArrayList<>();
+        for (String msgid : msgids)
+            if (!TextUtils.isEmpty(msgid) && !threads.containsKey(msgid)) {
+                lookup.add(msgid);
+                threads.put(msgid, new ArrayList<>());
+            }
+        if (lookup.size() == 0)
+            return;
+
+        DB db = DB.getInstance(context);
+        for (int i = 0; i < lookup.size(); i += MAX_LOOKUP) {
+            List<String> sub = lookup.subList(i, Math.min(lookup.size(), i + MAX_LOOKUP));
+            for (TupleThreadRef ref : db.message().getThreadRefs(account, sub))
+                if (!TextUtils.isEmpty(ref.thread)) {
+                    List<String> list = threads.get(ref.msgid);
+                    if (list != null && !list.contains(ref.thread))
+                        list.add(ref.thread);
+                }
+        }
+
+        Log.i("Thread index account=" + account + " lookup=" + lookup.size() + " size=" + threads.size());
+    }
+
+    String resolve(Context context, String msgid, List<String> refs) {
+        prefetch(context, refs);
+
+        // The thread of the first referenced message wins, other threads are merged into it
+        String thread = null;
+        for (String ref : refs)
+            for (String t : threads.get(ref)) {
+                t = find(t);
+                if (thread == null)
+                    thread = t;
+                else if (!thread.equals(t)) {
+                    Log.w("Updating before thread from " + t + " to " + thread);
+                    merge(context, t, thread);
+                }
+            }
+
+        if (thread == null && refs.size() > 0)
+            thread = find(refs.get(0));
+
+        if (thread != null && !TextUtils.isEmpty(msgid)) {
+            DB db = DB.getInstance(context);
+            for (String t : db.message().getThreadsByInReplyTo(account, msgid)) {
+                t = find(t);
+                if (!thread.equals(t)) {
+                    Log.w("Updating after thread from " + t + " to " + thread);
+                    merge(context, t, thread);
+                }
+            }
+        }
+
+        return thread;
+    }
+
+    void put(String msgid, String thread) {
+        if (TextUtils.isEmpty(msgid) || TextUtils.isEmpty(thread))
+            return;
+
+        List<String> list = threads.get(msgid);
+        if (list == null) {
+            list = new ArrayList<>();
+            threads.put(msgid, list);
+        }
+        if (!list.contains(thread))
+            list.add(thread);
+    }
+
+    private String find(String thread) {
+        String root = thread;
+        while (merged.containsKey(root))
+            root = merged.get(root);
+
+        // Path compression
+        while (!thread.equals(root)) {
+            String next = merged.get(thread);
+            merged.put(thread, root);
+            thread = next;
+        }
+
+        return root;
+    }
+
+    private void merge(Context context, String from, String to) {
+        if (from.equals(to))
+            return;
+
+        merged.put(from, to);
+
+        DB db = DB.getInstance(context);
+        db.message().updateMessageThread(account, from, to);
+    }
+}
@@ -0,0 +1,63 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import androidx.annotation.Nullable;
+
+import javax.mail.Address;
+
+public class TupleMessageNotify {
+    public long id;
+    public long account;
+    public long folder;
+    public boolean accountNotify;
+    public boolean folderUnified;
+    public int notifying;
+    public boolean content;
+    public boolean ui_seen;
+    public boolean ui_ignored;
+    public boolean ui_hide;
+    public long received;
+    public Address[] from;
+
+    String getNotificationChannelId() {
+        return EntityMessage.getNotificationChannelId(from);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj instanceof TupleMessageNotify) {
+            TupleMessageNotify other = (TupleMessageNotify) obj;
+            return (this.id == other.id &&
+                    this.account == other.account &&
+                    this.folder == other.folder &&
+                    this.accountNotify == other.accountNotify &&
+                    this.folderUnified == other.folderUnified &&
+                    this.notifying == other.notifying &&
+                    this.content == other.content &&
+                    this.ui_seen == other.ui_seen &&
+                    this.ui_ignored == other.ui_ignored &&
+                    this.ui_hide == other.ui_hide &&
+                    this.received == other.received &&
+                    MessageHelper.equal(this.from, other.from));
+        } else
+            return false;
+    }
+}
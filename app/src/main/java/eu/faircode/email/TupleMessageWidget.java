@@ -19,9 +19,34 @@ package eu.faircode.email;
     Copyright 2018-2021 by Marcel Bokhorst (M66B)
 */
 
+import androidx.annotation.Nullable;
+
+import java.util.Objects;
+
 public class TupleMessageWidget extends EntityMessage {
     public String accountName;
     public Integer accountColor;
     public int unseen;
     public int unflagged;
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        // Only what the widget shows
+        if (obj instanceof TupleMessageWidget) {
+            TupleMessageWidget other = (TupleMessageWidget) obj;
+            return (this.id.equals(other.id) &&
+                    this.account.equals(other.account) &&
+                    this.folder.equals(other.folder) &&
+                    Objects.equals(this.thread, other.thread) &&
+                    MessageHelper.equal(this.from, other.from) &&
+                    Objects.equals(this.subject, other.subject) &&
+                    this.received.equals(other.received) &&
+                    this.ui_seen.equals(other.ui_seen) &&
+                    Objects.equals(this.accountName, other.accountName) &&
+                    Objects.equals(this.accountColor, other.accountColor) &&
+                    this.unseen == other.unseen &&
+                    this.unflagged == other.unflagged);
+        } else
+            return false;
+    }
 }
@@ -19,23 +19,7 @@ package eu.faircode.email;
     Copyright 2018-2021 by Marcel Bokhorst (M66B)
 */
 
-import androidx.annotation.Nullable;
-
-public class TupleMessageWidgetCount {
-    public long folder;
-    public int total;
-    public int seen;
-    public int flagged;
-
-    @Override
-    public boolean equals(@Nullable Object obj) {
-        if (obj instanceof TupleMessageWidgetCount) {
-            TupleMessageWidgetCount other = (TupleMessageWidgetCount) obj;
-            return (this.folder == other.folder &&
-                    this.total == other.total &&
-                    this.seen == other.seen &&
-                    this.flagged == other.flagged);
-        } else
-            return false;
-    }
+public class TupleThreadRef {
+    public String msgid;
+    public String thread;
 }
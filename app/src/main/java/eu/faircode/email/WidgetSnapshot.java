@@ -0,0 +1,210 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2021 by Marcel Bokhorst (M66B)
+*/
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.preference.PreferenceManager;
+import androidx.room.InvalidationTracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+// Rows of each unified widget, refreshed when the tables the widget shows are written to
+// Refreshes are coalesced, so the cost doesn't depend on the number of writes of a synchronization
+// Without observing the tables, nothing is cached, so the widget never shows stale rows
+
+public class WidgetSnapshot {
+    private static Context context = null;
+    private static boolean observing = false;
+    private static boolean scheduled = false;
+    private static long last = 0;
+    private static final Map<Integer, List<TupleMessageWidget>> snapshots = new HashMap<>();
+
+    private static final long REFRESH_INTERVAL = 3 * 1000L; // milliseconds
+
+    private static final ExecutorService executor =
+            Helper.getBackgroundExecutor(1, "widget");
+
+    private static final InvalidationTracker.Observer observer =
+            new InvalidationTracker.Observer("message", "account", "folder", "identity") {
+                @Override
+                public void onInvalidated(@NonNull Set<String> tables) {
+                    schedule();
+                }
+            };
+
+    static void start(Context context) {
+        final DB db = DB.getInstance(context);
+        synchronized (WidgetSnapshot.class) {
+            WidgetSnapshot.context = context.getApplicationContext();
+            observing = true;
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                db.getInvalidationTracker().addObserver(observer);
+            }
+        });
+    }
+
+    static void stop(Context context) {
+        synchronized (WidgetSnapshot.class) {
+            observing = false;
+        }
+        clear();
+
+        final DB db = DB.getInstance(context);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                db.getInvalidationTracker().removeObserver(observer);
+            }
+        });
+    }
+
+    static List<TupleMessageWidget> get(Context context, int appWidgetId) {
+        synchronized (snapshots) {
+            List<TupleMessageWidget> messages = snapshots.get(appWidgetId);
+            if (messages != null)
+                return messages;
+        }
+
+        List<TupleMessageWidget> messages = query(context, appWidgetId);
+        synchronized (WidgetSnapshot.class) {
+            if (observing)
+                synchronized (snapshots) {
+                    snapshots.put(appWidgetId, messages);
+                }
+        }
+        return messages;
+    }
+
+    static void clear() {
+        synchronized (snapshots) {
+            snapshots.clear();
+        }
+    }
+
+    private static synchronized void schedule() {
+        if (scheduled || context == null)
+            return;
+        scheduled = true;
+
+        long delay = Math.max(0, last + REFRESH_INTERVAL - SystemClock.elapsedRealtime());
+        ApplicationEx.getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Context context;
+                        synchronized (WidgetSnapshot.class) {
+                            scheduled = false;
+                            if (!observing)
+                                return;
+                            last = SystemClock.elapsedRealtime();
+                            context = WidgetSnapshot.context;
+                        }
+
+                        try {
+                            refresh(context);
+                        } catch (Throwable ex) {
+                            Log.e(ex);
+                        }
+                    }
+                });
+            }
+        }, delay);
+    }
+
+    private static void refresh(Context context) {
+        if (!ActivityBilling.isPro(context))
+            return;
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        if (appWidgetManager == null) {
+            Log.w("No app widget manager"); // Fairphone FP2
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(context, WidgetUnified.class));
+        List<Integer> changed = new ArrayList<>();
+        for (int appWidgetId : appWidgetIds) {
+            List<TupleMessageWidget> messages = query(context, appWidgetId);
+            synchronized (WidgetSnapshot.class) {
+                if (!observing)
+                    return;
+                synchronized (snapshots) {
+                    if (!messages.equals(snapshots.get(appWidgetId))) {
+                        snapshots.put(appWidgetId, messages);
+                        changed.add(appWidgetId);
+                    }
+                }
+            }
+        }
+
+        Log.i("Widget snapshot widgets=" + appWidgetIds.length + " changed=" + changed.size() +
+                " elapsed=" + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        if (changed.size() > 0) {
+            int[] ids = new int[changed.size()];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = changed.get(i);
+            appWidgetManager.notifyAppWidgetViewDataChanged(ids, R.id.lv);
+        }
+    }
+
+    private static List<TupleMessageWidget> query(Context context, int appWidgetId) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean threading = prefs.getBoolean("threading", true);
+        long account = prefs.getLong("widget." + appWidgetId + ".account", -1L);
+        long folder = prefs.getLong("widget." + appWidgetId + ".folder", -1L);
+        boolean unseen = prefs.getBoolean("widget." + appWidgetId + ".unseen", false);
+        boolean flagged = prefs.getBoolean("widget." + appWidgetId + ".flagged", false);
+
+        DB db = DB.getInstance(context);
+        try {
+            db.beginTransaction();
+
+            List<TupleMessageWidget> messages = db.message().getWidgetUnified(
+                    account < 0 ? null : account,
+                    folder < 0 ? null : folder,
+                    threading, unseen, flagged);
+
+            db.setTransactionSuccessful();
+
+            return messages;
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
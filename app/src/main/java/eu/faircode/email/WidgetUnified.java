@@ -127,6 +127,7 @@ public class WidgetUnified extends AppWidgetProvider {
 
     static void init(Context context, int appWidgetId) {
         Log.i("Widget unified init=" + appWidgetId);
+        WidgetSnapshot.clear();
 
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
         if (appWidgetManager == null) {
@@ -142,6 +143,7 @@ public class WidgetUnified extends AppWidgetProvider {
 
     static void updateData(Context context) {
         Log.i("Widget unified update");
+        WidgetSnapshot.clear();
         if (ActivityBilling.isPro(context)) {
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             if (appWidgetManager == null) {
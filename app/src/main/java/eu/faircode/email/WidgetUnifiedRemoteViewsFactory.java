@@ -45,14 +45,10 @@ public class WidgetUnifiedRemoteViewsFactory implements RemoteViewsService.Remot
     private Context context;
     private int appWidgetId;
 
-    private boolean threading;
     private boolean subject_top;
     private boolean subject_italic;
     private boolean color_stripe;
-    private long folder;
     private long account;
-    private boolean unseen;
-    private boolean flagged;
     private boolean semi;
     private int background;
     private int font;
@@ -81,14 +77,10 @@ public class WidgetUnifiedRemoteViewsFactory implements RemoteViewsService.Remot
         Log.i("Widget factory changed id=" + appWidgetId);
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        threading = prefs.getBoolean("threading", true);
         subject_top = prefs.getBoolean("subject_top", false);
         subject_italic = prefs.getBoolean("subject_italic", true);
         color_stripe = prefs.getBoolean("color_stripe", true);
         account = prefs.getLong("widget." + appWidgetId + ".account", -1L);
-        folder = prefs.getLong("widget." + appWidgetId + ".folder", -1L);
-        unseen = prefs.getBoolean("widget." + appWidgetId + ".unseen", false);
-        flagged = prefs.getBoolean("widget." + appWidgetId + ".flagged", false);
         semi = prefs.getBoolean("widget." + appWidgetId + ".semi", true);
         background = prefs.getInt("widget." + appWidgetId + ".background", Color.TRANSPARENT);
         font = prefs.getInt("widget." + appWidgetId + ".font", 0);
@@ -105,19 +97,7 @@ public class WidgetUnifiedRemoteViewsFactory implements RemoteViewsService.Remot
 
         pro = ActivityBilling.isPro(context);
 
-        DB db = DB.getInstance(context);
-        try {
-            db.beginTransaction();
-
-            messages = db.message().getWidgetUnified(
-                    account < 0 ? null : account,
-                    folder < 0 ? null : folder,
-                    threading, unseen, flagged);
-
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-        }
+        messages = WidgetSnapshot.get(context, appWidgetId);
 
         hasColor = false;
         if (account < 0)
@@ -36,6 +36,7 @@ import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -191,6 +192,7 @@ public class WorkerCleanup extends Worker {
             File[] photos = new File(context.getCacheDir(), "photo").listFiles();
             File[] calendars = new File(context.getCacheDir(), "calendar").listFiles();
             File[] shared = new File(context.getCacheDir(), "shared").listFiles();
+            File[] rendered = new File(context.getCacheDir(), "render").listFiles();
 
             if (messages != null)
                 files.addAll(Arrays.asList(messages));
@@ -204,6 +206,8 @@ public class WorkerCleanup extends Worker {
                 files.addAll(Arrays.asList(calendars));
             if (shared != null)
                 files.addAll(Arrays.asList(shared));
+            if (rendered != null)
+                files.addAll(Arrays.asList(rendered));
 
             // Cleanup message files
             Log.i("Cleanup message files");
@@ -233,6 +237,10 @@ public class WorkerCleanup extends Worker {
                         }
                     }
 
+            // Cleanup restored message content not claimed by synchronization
+            Log.i("Cleanup restore files");
+            BackupHelper.cleanup(context, manual);
+
             // Cleanup attachment files
             Log.i("Cleanup attachment files");
             File[] attachments = new File(context.getFilesDir(), "attachments").listFiles();
@@ -248,6 +256,36 @@ public class WorkerCleanup extends Worker {
                         }
                     }
 
+            // Compress message bodies stored by previous versions
+            if (!prefs.getBoolean("compressed_bodies", false)) {
+                Log.i("Compressing message files");
+                int compressed = 0;
+                long saved = 0;
+                // Drafts being edited are written again compressed
+                List<Long> mids = db.message().getMessageWithContentNoDrafts();
+                for (Long mid : mids)
+                    try {
+                        File file = EntityMessage.getFile(context, mid);
+                        if (file.exists() && file.length() > 0) {
+                            long s = Helper.compress(file);
+                            if (s != 0) {
+                                compressed++;
+                                saved += s;
+                            }
+                        }
+                    } catch (IOException ex) {
+                        Log.w(ex);
+                    }
+                EntityLog.log(context, "Compressed message files=" + compressed + "/" + mids.size() +
+                        " saved=" + Helper.humanReadableByteCount(saved));
+                prefs.edit().putBoolean("compressed_bodies", true).apply();
+            }
+
+            // Store attachment content once and delete unreferenced content
+            Log.i("Cleanup attachment store");
+            AttachmentStore.dedupe(context);
+            AttachmentStore.cleanup(context);
+
             // Cleanup cached images
             Log.i("Cleanup cached image files");
             File[] images = new File(context.getCacheDir(), "images").listFiles();
@@ -292,6 +330,8 @@ public class WorkerCleanup extends Worker {
 
             Log.i("Cleanup contacts");
             int contacts = db.contact().deleteContacts(now - KEEP_CONTACTS_DURATION);
+            if (contacts > 0)
+                ContactIndex.invalidate();
             Log.i("Deleted contacts=" + contacts);
 
             Log.i("Cleanup log");
@@ -0,0 +1,278 @@
+#!/usr/bin/env python3
+
+# Prints or checks the SQLite query plans of Room DAO queries against an exported schema
+#
+# Usage:
+#   tools/query_plan.py <schema.json> <Dao.java> <method> [<method> ...]
+#   tools/query_plan.py --record <baseline.json> <schema.json>
+#   tools/query_plan.py --check <baseline.json> <schema.json>
+#
+# Example:
+#   tools/query_plan.py app/schemas/eu.faircode.email.DB/186.json \
+#     app/src/main/java/eu/faircode/email/DaoMessage.java pagedFolder liveUnseenNotify
+#   tools/query_plan.py --check tools/query_plan.json app/schemas/eu.faircode.email.DB/186.json
+#
+# Printing leaves the query parameters unbound on an empty database,
+# so the plans show which indexes can be used, not which are chosen for real data.
+#
+# Recording and checking seed the database with the number of messages in the baseline,
+# analyze it like WorkerCleanup does, bind the parameters below and time each query.
+# Checking exits non-zero when a plan got a SCAN or TEMP B-TREE step the baseline doesn't have,
+# or when a query got much slower than recorded. Timings depend on the machine,
+# so record the baseline on the machine the check runs on.
+
+import json
+import os
+import random
+import re
+import sqlite3
+import sys
+import time
+
+STRING = r'"(?:\\.|[^"\\])*"'
+TOKEN = re.compile(STRING + r'|//[^\n]*|/\*.*?\*/|[A-Za-z_][\w.]*|-?\d+|\+', re.S)
+
+SOURCES = os.path.join(os.path.dirname(os.path.abspath(__file__)),
+                       '..', 'app', 'src', 'main', 'java', 'eu', 'faircode', 'email')
+
+ROWS = 200000
+ACCOUNTS = 4
+FOLDERS = 10
+NOW = 1640995200000
+DAY = 24 * 3600 * 1000
+
+# Bound by name, like the app does for the common case
+PARAMETERS = {
+    'account': 1,
+    'ascending': 0,
+    'before': NOW - 30 * DAY,
+    'count': 100,
+    'debug': 0,
+    'filter_archive': 1,
+    'filter_language': None,
+    'filter_seen': 0,
+    'filter_snoozed': 1,
+    'filter_unflagged': 0,
+    'filter_unknown': 0,
+    'folder': 1,
+    'found': 0,
+    'id': 1,
+    'msgid': '',
+    'primary': None,
+    'sort': 'time',
+    'thread': 'thread1',
+    'threading': 1,
+    'type': None,
+    'unseen': 0,
+}
+
+# Slower than this factor of the baseline and this number of milliseconds is a regression
+SLOWER_FACTOR = 3
+SLOWER_MS = 50
+
+
+def create(schema):
+    db = sqlite3.connect(':memory:', isolation_level=None)
+    database = json.load(open(schema))['database']
+    for entity in database['entities']:
+        table = entity['tableName']
+        db.execute(entity['createSql'].replace('${TABLE_NAME}', table))
+        for index in entity.get('indices', []):
+            db.execute(index['createSql'].replace('${TABLE_NAME}', table))
+    for view in database.get('views', []):
+        db.execute(view['createSql'].replace('${VIEW_NAME}', view['viewName']))
+    return db
+
+
+def insert(db, schema, table, rows, values):
+    database = json.load(open(schema))['database']
+    entity = next(e for e in database['entities'] if e['tableName'] == table)
+    columns = [f['columnName'] for f in entity['fields'] if f['columnName'] != 'id']
+    defaults = {}
+    for field in entity['fields']:
+        if field['notNull']:
+            defaults[field['columnName']] = ('' if field['affinity'] == 'TEXT' else 0)
+    sql = 'INSERT INTO `%s` (%s) VALUES (%s)' % (
+        table, ', '.join('`%s`' % c for c in columns), ', '.join('?' * len(columns)))
+    db.executemany(sql, ([values(i).get(c, defaults.get(c)) for c in columns] for i in range(rows)))
+
+
+def seed(db, schema, rows):
+    random.seed(0)
+    types = ['Inbox', 'Drafts', 'Sent', 'All', 'Trash', 'Junk', 'Outbox', 'User', 'User', 'User']
+
+    db.execute('BEGIN')
+    insert(db, schema, 'account', ACCOUNTS, lambda i: {
+        'name': 'account%d' % i, 'synchronize': 1, 'primary': int(i == 0)})
+    insert(db, schema, 'folder', ACCOUNTS * FOLDERS, lambda i: {
+        'account': i // FOLDERS + 1,
+        'name': '%s%d' % (types[i % FOLDERS], i), 'type': types[i % FOLDERS],
+        'synchronize': 1, 'download': 1, 'sync_days': 7, 'keep_days': 30,
+        'unified': int(i % FOLDERS == 0), 'navigation': int(i % FOLDERS < 3), 'notify': int(i % FOLDERS == 0)})
+
+    def message(i):
+        folder = random.choices(range(ACCOUNTS * FOLDERS), weights=[50, 1, 10, 20, 5, 5, 0, 3, 3, 3] * ACCOUNTS)[0]
+        received = NOW - random.randint(0, 2 * 365) * DAY
+        return {
+            'account': folder // FOLDERS + 1, 'folder': folder + 1, 'uid': i + 1,
+            'msgid': '<%d@example.com>' % i, 'thread': 'thread%d' % (i // 3),
+            'subject': 'subject%d' % i, 'from': '[{"address":"user%d@example.com"}]' % (i % 1000),
+            'content': 1, 'received': received, 'sent': received, 'stored': received,
+            'seen': int(random.random() < 0.9), 'ui_seen': int(random.random() < 0.9),
+            'ui_flagged': int(random.random() < 0.05), 'ui_hide': int(random.random() < 0.01),
+            'ui_browsed': int(random.random() < 0.01)}
+
+    insert(db, schema, 'message', rows, message)
+    db.execute('COMMIT')
+    db.execute('PRAGMA analysis_limit=1000')
+    db.execute('ANALYZE')
+
+
+def unquote(literal):
+    return literal[1:-1].replace('\\"', '"').replace('\\\\', '\\')
+
+
+def constant(source, name):
+    # Name or Class.NAME, declared as a string or number constant
+    if '.' in name:
+        cls, name = name.rsplit('.', 1)
+        path = os.path.join(os.path.dirname(source), cls + '.java')
+    else:
+        path = source
+    text = open(path).read()
+    m = re.search(r'\b(?:String|int|long|Integer|Long)\s+' + re.escape(name) + r'\s*=\s*(.*?);', text, re.S)
+    if m is None:
+        raise ValueError('Unknown constant ' + name)
+    return concat(path, m.group(1))
+
+
+def concat(source, expression):
+    sql = ''
+    for token in TOKEN.findall(expression):
+        if token == '+' or token.startswith('/'):
+            continue
+        if token.startswith('"'):
+            sql += unquote(token)
+        elif re.match(r'-?\d', token):
+            sql += token
+        else:
+            sql += constant(source, token)
+    return sql
+
+
+def queries(source):
+    text = open(source).read()
+    result = {}
+    for m in re.finditer(r'@Query\(', text):
+        # Find the closing parenthesis, skipping string literals
+        i = m.end()
+        depth = 1
+        while depth > 0:
+            if text[i] == '"':
+                i = re.compile(STRING).match(text, i).end()
+                continue
+            if text[i] == '(':
+                depth += 1
+            elif text[i] == ')':
+                depth -= 1
+            i += 1
+        expression = text[m.end():i - 1]
+        declaration = text[i:text.index(';', i)]
+        name = re.search(r'\b(\w+)\s*\(', declaration).group(1)
+        sql = concat(source, expression)
+        if 'DataSource.Factory' in declaration:
+            # Like LimitOffsetDataSource loads a page
+            sql = 'SELECT * FROM (' + sql + ') LIMIT 100 OFFSET 0'
+        result[name] = sql
+    return result
+
+
+def plan(db, sql, parameters):
+    lines = []
+    depth = {0: 0}
+    for id, parent, _, detail in db.execute('EXPLAIN QUERY PLAN ' + sql, parameters):
+        depth[id] = depth.get(parent, 0) + 1
+        lines.append('  ' * (depth[id] - 1) + detail)
+    return lines
+
+
+def run(db, sql, parameters):
+    # Modifying queries are rolled back to keep the data the same for every query
+    db.execute('SAVEPOINT query')
+    try:
+        start = time.perf_counter()
+        db.execute(sql, parameters).fetchall()
+        return (time.perf_counter() - start) * 1000
+    finally:
+        db.execute('ROLLBACK TO query')
+        db.execute('RELEASE query')
+
+
+def measure(baseline, schema):
+    db = create(schema)
+    seed(db, schema, baseline.get('rows', ROWS))
+    result = {}
+    for name in baseline['queries']:
+        dao, method = name.split('.')
+        sql = queries(os.path.join(SOURCES, dao + '.java'))[method]
+        parameters = {}
+        for parameter in set(re.findall(r':(\w+)', sql)):
+            if parameter not in PARAMETERS:
+                raise ValueError('No value for :%s of %s' % (parameter, name))
+            parameters[parameter] = PARAMETERS[parameter]
+        result[name] = {
+            'plan': plan(db, sql, parameters),
+            'ms': round(min(run(db, sql, parameters) for _ in range(3)), 1)}
+    return result
+
+
+def regressions(name, expected, actual):
+    problems = []
+    for line in actual['plan']:
+        step = line.strip()
+        if (step.startswith('SCAN') or 'TEMP B-TREE' in step) and \
+                step not in [l.strip() for l in expected['plan']]:
+            problems.append('%s: %s' % (name, step))
+    if actual['ms'] > expected['ms'] * SLOWER_FACTOR and actual['ms'] - expected['ms'] > SLOWER_MS:
+        problems.append('%s: %.1f ms, was %.1f ms' % (name, actual['ms'], expected['ms']))
+    return problems
+
+
+def main():
+    if len(sys.argv) == 4 and sys.argv[1] in ('--record', '--check'):
+        baseline = json.load(open(sys.argv[2]))
+        measured = measure(baseline, sys.argv[3])
+
+        if sys.argv[1] == '--record':
+            baseline['rows'] = baseline.get('rows', ROWS)
+            baseline['queries'] = measured
+            with open(sys.argv[2], 'w') as f:
+                json.dump(baseline, f, indent=2)
+                f.write('\n')
+            return
+
+        problems = []
+        for name, actual in measured.items():
+            print('%s %.1f ms' % (name, actual['ms']))
+            problems += regressions(name, baseline['queries'][name], actual)
+        for problem in problems:
+            print('Regression ' + problem)
+        sys.exit(1 if problems else 0)
+
+    if len(sys.argv) < 4:
+        print('Usage: query_plan.py <schema.json> <Dao.java> <method> [<method> ...]')
+        print('       query_plan.py --record|--check <baseline.json> <schema.json>')
+        sys.exit(1)
+
+    db = create(sys.argv[1])
+    available = queries(sys.argv[2])
+    for method in sys.argv[3:]:
+        sql = re.sub(r':\w+', '?', available[method])
+        print(method)
+        for line in plan(db, sql, [None] * sql.count('?')):
+            print('  ' + line)
+        print()
+
+
+if __name__ == '__main__':
+    main()